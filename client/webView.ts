@@ -2,9 +2,37 @@ type TransitionViewResponse = {
     isOk: boolean;
     message: string;
     root: types.Graph;
+    data: Record<types.DiagramLabel['id'], string> | null;
+    strings?: string[] | null;
+};
+
+type GraphElement = types.Graph['children'][number];
+
+type TransitionViewDiff = {
+    removed: string[];
+    updated: GraphElement[];
+    moved: Record<string, {x: number; y: number}>;
+};
+
+type TransitionViewUpdateResponse = {
+    isOk: boolean;
+    message: string;
+    revision: number;
+    root: types.Graph | null;
+    diff: TransitionViewDiff | null;
     data: Record<types.DiagramLabel['id'], string>;
 };
 
+// Last diagram received from server, diffs are applied on top of it
+let lastRoot: types.Graph | null = null;
+let lastRevision = 0;
+
+// Diagram came from a request other than dbg_feature_update, so server must not send a diff against it
+const replaceRoot = (root: types.Graph): void => {
+    lastRoot = root;
+    lastRevision = 0;
+};
+
 export const getModel = async (): Promise<void> => {
     const uri = await instance.request('activeTextEditorUri');
     if (isErr(uri)) {
@@ -19,7 +47,147 @@ export const getModel = async (): Promise<void> => {
     }
 
     if (isGraph(response.root)) {
-        diagram.set(reduceGraph(response.root, {}));
+        const root = expandStrings(response.root, response.strings);
+        expandedTypes.clear();
+        replaceRoot(root);
+        diagram.set(reduceGraph(root, {}));
+        labelsData.set(response.data ?? {});
+    }
+};
+
+// Restores identifiers packed by server into string table
+const expandStrings = (root: types.Graph, strings?: string[] | null): types.Graph => {
+    if (!strings) {
+        return root;
+    }
+    const expand = <T extends {id: string; children?: unknown[]}>(element: T): T => {
+        const edge = element as {sourceId?: string; targetId?: string};
+        return {
+            ...element,
+            id: strings[Number(element.id)],
+            ...(edge.sourceId !== undefined && {sourceId: strings[Number(edge.sourceId)]}),
+            ...(edge.targetId !== undefined && {targetId: strings[Number(edge.targetId)]}),
+            ...(element.children && {children: element.children.map(child => expand(child as T))}),
+        };
+    };
+    return {...root, children: root.children.map(expand)};
+};
+
+// Condition texts are loaded from server when edge label is hovered for the first time
+export const fetchCondition = async (labelId: types.DiagramLabel['id']): Promise<void> => {
+    if (get(labelsData)[labelId] !== undefined) {
+        return;
+    }
+    const uri = await instance.request('activeTextEditorUri');
+    if (isErr(uri)) {
+        logger.error('Cannot get active editor uri');
+        return;
+    }
+    const condition = await instance.lsp.sendRequest('tgen/edge_condition', {
+        uri:   uri.unwrap(),
+        label: labelId,
+    }) as string;
+    labelsData.update(data => ({...data, [labelId]: condition}));
+};
+
+const applyDiff = (root: types.Graph, diff: TransitionViewDiff): types.Graph => {
+    const removed = new Set(diff.removed);
+    const updated = new Map(diff.updated.map(element => [element.id, element]));
+    const children = root.children
+        .filter(element => !removed.has(element.id))
+        .map(element => {
+            const replacement = updated.get(element.id);
+            if (replacement) {
+                updated.delete(element.id);
+                return replacement;
+            }
+            const position = diff.moved[element.id];
+            return position ? {...element, position} : element;
+        });
+
+    return {...root, children: [...children, ...updated.values()]};
+};
+
+export const updateModel = async (): Promise<void> => {
+    const uri = await instance.request('activeTextEditorUri');
+    if (isErr(uri)) {
+        logger.error('Cannot get active editor uri');
+        return;
+    }
+    const response = await instance.lsp.sendRequest('tgen/dbg_feature_update', {
+        uri:      uri.unwrap(),
+        revision: String(lastRevision),
+    }) as TransitionViewUpdateResponse;
+
+    if (!response.isOk) {
+        logger.error(response.message);
+        return;
+    }
+
+    if (response.root && isGraph(response.root)) {
+        expandedTypes.clear();
+        lastRoot = response.root;
         labelsData.set(response.data);
+    } else if (response.diff && lastRoot) {
+        lastRoot = applyDiff(lastRoot, response.diff);
+        labelsData.update(data => ({...data, ...response.data}));
+    } else {
+        return;
+    }
+
+    lastRevision = response.revision;
+    diagram.set(reduceGraph(lastRoot, {}));
+};
+
+// Types whose attributes and transitions were loaded into collapsed diagram
+const expandedTypes = new Set<string>();
+
+export const getCollapsedModel = async (): Promise<void> => {
+    const uri = await instance.request('activeTextEditorUri');
+    if (isErr(uri)) {
+        logger.error('Cannot get active editor uri');
+        return;
+    }
+    const response = await instance.lsp.sendRequest('tgen/dbg_feature_collapsed', uri.unwrap()) as TransitionViewResponse;
+
+    if (!response.isOk) {
+        logger.error(response.message);
+        return;
+    }
+
+    if (isGraph(response.root)) {
+        expandedTypes.clear();
+        replaceRoot(response.root);
+        diagram.set(reduceGraph(response.root, {}));
+        labelsData.set(response.data ?? {});
+    }
+};
+
+export const expandType = async (typeId: string): Promise<void> => {
+    if (!lastRoot || expandedTypes.has(typeId)) {
+        return;
+    }
+    const uri = await instance.request('activeTextEditorUri');
+    if (isErr(uri)) {
+        logger.error('Cannot get active editor uri');
+        return;
+    }
+    const response = await instance.lsp.sendRequest('tgen/expand_type', {
+        uri:      uri.unwrap(),
+        type:     typeId,
+        expanded: [...expandedTypes].join(','),
+    }) as TransitionViewResponse;
+
+    if (!response.isOk) {
+        logger.error(response.message);
+        return;
+    }
+
+    // Server lays out the whole diagram again, so neighbours make room for expanded type
+    if (isGraph(response.root)) {
+        expandedTypes.add(typeId);
+        replaceRoot(response.root);
+        labelsData.update(data => ({...data, ...(response.data ?? {})}));
+        diagram.set(reduceGraph(response.root, {}));
     }
 };
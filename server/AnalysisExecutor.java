@@ -0,0 +1,153 @@
+/**
+ * AnalysisExecutor class documentation.
+ *
+ * This class is a AnalysisExecutor representation.
+ * It runs heavy part of tgen requests (solver search, layout) on its own threads, after
+ * snapshot of the document was taken under read lock, so the lock is held only for
+ * snapshotting. Requests with equal cache key, that is same document content and arguments,
+ * share one computation while it is running. Results already cached are sent without
+ * taking snapshot at all.
+ *
+ * Shared computation is cancelled only when every request waiting for it is cancelled.
+ * Number of threads is set up with tgen.analysis.threads system property
+ *
+ * @author Garaev Timur
+ */
+public class AnalysisExecutor {
+	private static final AnalysisExecutor SHARED = new AnalysisExecutor(
+			Integer.getInteger("tgen.analysis.threads", Runtime.getRuntime().availableProcessors()));
+
+	private final ExecutorService executor;
+	private final ConcurrentHashMap<String, Computation<?>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Computation is one running computation and requests waiting for it
+	 */
+	private static class Computation<T> {
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		final List<CompletableFuture<T>> waiters = new CopyOnWriteArrayList<>();
+
+		CompletableFuture<T> join() {
+			CompletableFuture<T> waiter = new CompletableFuture<>();
+			waiters.add(waiter);
+			result.whenComplete((value, error) -> {
+				if (error != null) {
+					waiter.completeExceptionally(error);
+				} else {
+					waiter.complete(value);
+				}
+			});
+			return waiter;
+		}
+
+		boolean cancelled() {
+			for (CompletableFuture<T> waiter : waiters) {
+				if (!waiter.isCancelled()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	public AnalysisExecutor(int threads) {
+		executor = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+			Thread thread = new Thread(task, "tgen-analysis");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static AnalysisExecutor shared() {
+		return SHARED;
+	}
+
+	/**
+	 * submit gives cached result, joins running computation with the same key,
+	 * or takes snapshot and starts new computation. Must be called under read lock of the document
+     * @param key cache key made by TransitionResultCache.key()
+	 * @param snapshot takes snapshot of the document, runs on calling thread
+	 * @param compute computation on snapshot, gets a check telling if every waiting request is cancelled
+     * @return result of request
+     */
+	@SuppressWarnings("unchecked")
+	public <S, T> CompletableFuture<T> submit(String key, Supplier<S> snapshot,
+			BiFunction<S, BooleanSupplier, T> compute) {
+		Object cached = TransitionResultCache.shared().getIfPresent(key);
+		if (cached != null) {
+			return CompletableFuture.completedFuture((T) cached);
+		}
+
+		Computation<T> running = (Computation<T>) inFlight.get(key);
+		if (running != null) {
+			AnalysisMetrics.shared().increment(AnalysisMetrics.COALESCED_REQUESTS);
+			return running.join();
+		}
+
+		S state = AnalysisMetrics.shared().timed("snapshot", snapshot::get);
+		Computation<T> computation = new Computation<>();
+		running = (Computation<T>) inFlight.putIfAbsent(key, computation);
+		if (running != null) {
+			AnalysisMetrics.shared().increment(AnalysisMetrics.COALESCED_REQUESTS);
+			return running.join();
+		}
+
+		CompletableFuture<T> waiter = computation.join();
+		try {
+			executor.execute(() -> run(key, computation, () -> compute.apply(state, computation::cancelled)));
+		} catch (RejectedExecutionException e) {
+			inFlight.remove(key, computation);
+			computation.result.completeExceptionally(e);
+		}
+		return waiter;
+	}
+
+	private <T> void run(String key, Computation<T> computation, Supplier<T> compute) {
+		try {
+			if (computation.cancelled()) {
+				computation.result.completeExceptionally(new CancellationException());
+			} else {
+				computation.result.complete(compute.get());
+			}
+		} catch (Throwable e) {
+			computation.result.completeExceptionally(e);
+		} finally {
+			inFlight.remove(key, computation);
+		}
+	}
+
+	/**
+	 * await unwraps result of doRead whose body submitted a computation. Cancelling returned
+	 * future cancels the read if it is still waiting for the lock, or the request's share
+	 * of computation otherwise
+     * @param read result of doRead
+     * @return result of request
+     */
+	public static <T> CompletableFuture<T> await(CompletableFuture<CompletableFuture<T>> read) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		read.whenComplete((inner, error) -> {
+			if (error != null) {
+				result.completeExceptionally(error);
+				return;
+			}
+			result.whenComplete((value, e) -> {
+				if (result.isCancelled()) {
+					inner.cancel(false);
+				}
+			});
+			inner.whenComplete((value, e) -> {
+				if (e != null) {
+					result.completeExceptionally(e);
+				} else {
+					result.complete(value);
+				}
+			});
+		});
+		result.whenComplete((value, e) -> {
+			if (result.isCancelled()) {
+				read.cancel(true);
+			}
+		});
+		return result;
+	}
+}
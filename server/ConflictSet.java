@@ -0,0 +1,67 @@
+/**
+ * ConflictSet class documentation.
+ *
+ * This class is a ConflictSet representation.
+ * It keeps learned conflicts of one analysis: sets of transition formula ids whose
+ * conjunction is unsatisfiable, usually unsat cores returned by prover.
+ * Any path condition containing a known conflict is unsatisfiable too, so it is
+ * rejected without solver. Only minimal conflicts are kept: a conflict containing
+ * another one is never stored
+ *
+ * Conflicts are bucketed by their lowest formula id, so a path condition is checked
+ * only against conflicts whose lowest id it contains
+ *
+ * @author Garaev Timur
+ */
+public class ConflictSet {
+	private final HashMap<Integer, List<BitSet>> byLowestId = new HashMap<>();
+	private int size = 0;
+
+	/**
+	 * subsumes checks if path condition contains a known conflict
+     * @param condition ids of transition formulas forming path condition
+     * @return true if path condition is known to be unsatisfiable
+     */
+	public boolean subsumes(BitSet condition) {
+		for (int id = condition.nextSetBit(0); id >= 0; id = condition.nextSetBit(id + 1)) {
+			List<BitSet> bucket = byLowestId.get(id);
+			if (bucket == null) {
+				continue;
+			}
+			for (BitSet conflict : bucket) {
+				if (isSubset(conflict, condition)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * add learns new conflict and drops known conflicts containing it
+     * @param conflict ids of transition formulas whose conjunction is unsatisfiable
+     */
+	public void add(BitSet conflict) {
+		if (conflict.isEmpty() || subsumes(conflict)) {
+			return;
+		}
+
+		for (List<BitSet> bucket : byLowestId.values()) {
+			int before = bucket.size();
+			bucket.removeIf(known -> isSubset(conflict, known));
+			size -= before - bucket.size();
+		}
+		byLowestId.computeIfAbsent(conflict.nextSetBit(0), key -> new ArrayList<>()).add(conflict);
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private static boolean isSubset(BitSet subset, BitSet set) {
+		BitSet rest = (BitSet) subset.clone();
+		rest.andNot(set);
+		return rest.isEmpty();
+	}
+}
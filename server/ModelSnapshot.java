@@ -0,0 +1,111 @@
+/**
+ * ModelSnapshot class documentation.
+ *
+ * This class is a ModelSnapshot representation.
+ * It keeps what analysis of one document needs and is taken under read lock of the document:
+ * inheritance tree with transitions, condition texts of the transitions and, for solver search,
+ * compiled transition graph whose conditions are copied out of the resource. Once snapshot
+ * is taken the lock is released, so solver search and layout do not block document updates.
+ *
+ * Nothing taken out of the snapshot reads the live model: layout reads condition texts
+ * rendered under the lock, never conditions of the tree, and copied conditions refer to copies
+ * of the attribute declarations they use
+ *
+ * @author Garaev Timur
+ */
+public class ModelSnapshot {
+	private final String packName;
+	private final List<DeviceTypeNode> treeList;
+	private final TransitionGraph graph;
+	// Condition texts of every transition of the tree
+	private final Map<TransitionData, String> formulaTexts = new IdentityHashMap<>();
+
+	private ModelSnapshot(String _packName, List<DeviceTypeNode> _treeList, TransitionGraph _graph) {
+		packName = _packName;
+		treeList = Collections.unmodifiableList(_treeList);
+		graph = _graph;
+		for (DeviceTypeNode node : _treeList) {
+			for (AttributeData attr : node.getAttributes()) {
+				if (attr.getTransitions() != null) {
+					for (TransitionData data : attr.getTransitions()) {
+						formulaTexts.put(data, data.getFormulaRepresentation());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * forLayout takes snapshot needed to generate diagrams, must be called under read lock
+     * @param generator transition generator of current request
+	 * @param pack behavior model package
+     * @return snapshot without compiled transition graph
+     */
+	public static ModelSnapshot forLayout(BdmTransitionGenerator generator, BdmPackage pack) {
+		return new ModelSnapshot(pack.getName(), generator.generateTransitionGraphFromBdm(List.of(pack), null), null);
+	}
+
+	/**
+	 * forSearch takes snapshot needed to run solver search, must be called under read lock
+     * @param generator transition generator of current request
+	 * @param pack behavior model package
+     * @return snapshot with compiled transition graph detached from the resource
+     */
+	public static ModelSnapshot forSearch(BdmTransitionGenerator generator, BdmPackage pack) {
+		List<DeviceTypeNode> treeList = generator.generateTransitionGraphFromBdm(List.of(pack), null);
+		TransitionGraph graph = AnalysisMetrics.shared().timed("compile", () -> TransitionGraph.compile(treeList));
+		return new ModelSnapshot(pack.getName(), treeList, graph.detached());
+	}
+
+	/**
+	 * copyEvents copies events out of the resource, must be called under read lock
+     * @param events events of behavior model package
+     * @return copied events
+     */
+	public static List<Event> copyEvents(List<Event> events) {
+		return detach(events);
+	}
+
+	/**
+	 * detach copies model objects out of their resource, must be called under read lock.
+	 * Objects they refer to are copied too, so copies never read the live model.
+	 * References of those referred objects are not followed further
+     * @param objects model objects
+     * @return copies of objects
+     */
+	public static <T extends EObject> List<T> detach(Collection<? extends T> objects) {
+		EcoreUtil.Copier copier = new EcoreUtil.Copier();
+		List<T> copies = new ArrayList<>(copier.copyAll(objects));
+		for (EObject original : new ArrayList<>(copier.keySet())) {
+			for (EObject referenced : original.eCrossReferences()) {
+				if (!copier.containsKey(referenced)) {
+					copier.copy(referenced);
+				}
+			}
+		}
+		copier.copyReferences();
+		return copies;
+	}
+
+	public String getPackName() {
+		return packName;
+	}
+
+	public List<DeviceTypeNode> getTreeList() {
+		return treeList;
+	}
+
+	public TransitionGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * formulaText gives condition text of transition rendered when snapshot was taken
+     * @param data transition of snapshot tree
+     * @return condition text
+     */
+	public String formulaText(TransitionData data) {
+		String text = formulaTexts.get(data);
+		return text == null ? "" : text;
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * ReachabilityReport class documentation.
+ *
+ * This class is a ReachabilityReport representation.
+ * It keeps results of checking every attribute of the model as a start attribute: 
+ * attributes that can not be reached because of unsatisfiable transition conditions 
+ * and cyclic attributes reachable from it
+ *
+ * @author Garaev Timur
+ */
+public class ReachabilityReport {
+	LinkedHashMap<String, List<String>> unreachable = new LinkedHashMap<>();
+	LinkedHashMap<String, List<String>> cycles = new LinkedHashMap<>();
+	// Attributes not proven reachable before solver budget ran out
+	LinkedHashMap<String, List<String>> unknown = new LinkedHashMap<>();
+	// Start attributes checked to the end and skipped because of solver budget
+	int checked;
+	int skipped;
+	// Why the model was not analysed at all, null if it was
+	String notAnalysed;
+	
+	/**
+	 * notAnalysed makes report of a resource which could not be analysed
+     * @param reason why analysis did not run
+     * @return empty report telling the reason
+     */
+	public static ReachabilityReport notAnalysed(String reason) {
+		ReachabilityReport report = new ReachabilityReport();
+		report.notAnalysed = reason;
+		return report;
+	}
+	
+	/**
+	 * of checks all attributes of given transition graph, 
+	 * can be used without language server
+     * @param treeList list of nodes in inheritance tree with transitions
+     * @return report for all start attributes
+     */
+	public static ReachabilityReport of(List<DeviceTypeNode> treeList) {
+		return of(treeList, SolverBudget.forFullCheck(() -> false));
+	}
+	
+	public static ReachabilityReport of(List<DeviceTypeNode> treeList, SolverBudget budget) {
+		try (TransitionStateMachine stateMachine = new TransitionStateMachine(treeList, budget)) {
+			return stateMachine.proceedAll();
+		}
+	}
+	
+	/**
+	 * of checks all attributes of already compiled transition graph, 
+	 * used on snapshots taken by ModelSnapshot
+     * @param graph compiled transition graph
+	 * @param budget solver budget of current request
+     * @return report for all start attributes
+     */
+	public static ReachabilityReport of(TransitionGraph graph, SolverBudget budget) {
+		try (TransitionStateMachine stateMachine = new TransitionStateMachine(graph, budget)) {
+			return stateMachine.proceedAll();
+		}
+	}
+	
+	void addUnreachable(String start, List<String> attrs) {
+		checked++;
+		if (!attrs.isEmpty()) {
+			unreachable.put(start, attrs);
+		}
+	}
+	
+	void addCycles(String start, List<String> attrs) {
+		cycles.put(start, attrs);
+	}
+	
+	void addUnknown(String start, List<String> attrs) {
+		skipped++;
+		if (!attrs.isEmpty()) {
+			unknown.put(start, attrs);
+		}
+	}
+	
+	public Map<String, List<String>> getUnreachable() {
+		return unreachable;
+	}
+	
+	public Map<String, List<String>> getCycles() {
+		return cycles;
+	}
+	
+	public Map<String, List<String>> getUnknown() {
+		return unknown;
+	}
+	
+	public boolean isComplete() {
+		return unknown.isEmpty() && skipped == 0 && notAnalysed == null;
+	}
+	
+	public long estimateSize() {
+		long size = 64;
+		for (Map<String, List<String>> part : List.of(unreachable, cycles, unknown)) {
+			for (Map.Entry<String, List<String>> entry : part.entrySet()) {
+				size += 64 + 2L * entry.getKey().length();
+				for (String attr : entry.getValue()) {
+					size += 48 + 2L * attr.length();
+				}
+			}
+		}
+		return size;
+	}
+	
+	@Override
+	public String toString() {
+		if (notAnalysed != null) {
+			return "Nothing was analysed: " + notAnalysed;
+		}
+		if (checked == 0 && cycles.isEmpty()) {
+			return skipped == 0 ? "Nothing was analysed: model has no attributes"
+					: "Nothing was analysed: solver budget exhausted before any start attribute was checked\n"
+						+ listUnknown();
+		}
+		
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<String, List<String>> entry : cycles.entrySet()) {
+			result.append(entry.getKey()).append(": cycle found through ")
+				.append(String.join(", ", entry.getValue())).append("\n");
+		}
+		for (Map.Entry<String, List<String>> entry : unreachable.entrySet()) {
+			result.append(entry.getKey()).append(": unreachable attrs ")
+				.append(String.join(", ", entry.getValue())).append("\n");
+		}
+		result.append(listUnknown());
+		if (result.length() == 0) {
+			return "All attributes are reachable from " + checked + " checked start attributes";
+		}
+		if (skipped > 0) {
+			result.append(skipped).append(" start attributes were not checked (solver budget exhausted)\n");
+		}
+		return result.toString();
+	}
+	
+	private String listUnknown() {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<String, List<String>> entry : unknown.entrySet()) {
+			result.append(entry.getKey()).append(": unknown attrs (solver budget exhausted) ")
+				.append(String.join(", ", entry.getValue())).append("\n");
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,232 @@
+/**
+ * TransitionGraph class documentation.
+ *
+ * This class is a TransitionGraph representation.
+ * It keeps transition graph of attributes compiled into compressed sparse row arrays: 
+ * transitions of attribute v are targets[offsets[v]] .. targets[offsets[v + 1] - 1] 
+ * and formulaIds keeps index of transition condition in formulas for each of them.
+ * Strongly connected components are computed once with iterative Tarjan's algorithm
+ *
+ * @author Garaev Timur
+ */
+public class TransitionGraph {
+	final String[] ids;
+	final HashMap<String, Integer> idToIndex;
+	
+	final int[] offsets;
+	final int[] targets;
+	final int[] formulaIds;
+	final List<Expression> formulas;
+	
+	// Components are numbered in reverse topological order: transitions never lead to a component with greater id
+	final int[] component;
+	final int componentCount;
+	final boolean[] cyclicComponent;
+	
+	private TransitionGraph(String[] _ids, HashMap<String, Integer> _idToIndex, int[] _offsets, 
+			int[] _targets, int[] _formulaIds, List<Expression> _formulas) {
+		ids = _ids;
+		idToIndex = _idToIndex;
+		offsets = _offsets;
+		targets = _targets;
+		formulaIds = _formulaIds;
+		formulas = _formulas;
+		
+		component = new int[ids.length];
+		componentCount = findComponents();
+		cyclicComponent = new boolean[componentCount];
+		int[] componentSize = new int[componentCount];
+		for (int v = 0; v < ids.length; v++) {
+			componentSize[component[v]]++;
+		}
+		for (int v = 0; v < ids.length; v++) {
+			for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+				if (targets[e] == v || componentSize[component[v]] > 1) {
+					cyclicComponent[component[v]] = true;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * compile builds transition graph of all attributes of given inheritance tree
+     * @param graph list of nodes in inheritance tree with transitions
+     * @return compiled graph
+     */
+	public static TransitionGraph compile(List<DeviceTypeNode> graph) {
+		HashMap<String, Integer> idToIndex = new HashMap<>();
+		List<String> ids = new ArrayList<>();
+		for (DeviceTypeNode node : graph) {
+			for (AttributeData attr : node.getAttributes()) {
+				String attrId = node.getId() + ":" + attr.getName();
+				idToIndex.put(attrId, ids.size());
+				ids.add(attrId);
+			}
+		}
+		
+		IdentityHashMap<Expression, Integer> formulaIndex = new IdentityHashMap<>();
+		List<Expression> formulas = new ArrayList<>();
+		int[] offsets = new int[ids.size() + 1];
+		int[] targets = new int[16];
+		int[] formulaIds = new int[16];
+		int edges = 0;
+		int v = 0;
+		for (DeviceTypeNode node : graph) {
+			for (AttributeData attr : node.getAttributes()) {
+				offsets[v++] = edges;
+				if (attr.getTransitions() == null) {
+					continue;
+				}
+				
+				for (TransitionData to : attr.getTransitions()) {
+					Integer target = idToIndex.get(to.getDevType() + ":" + to.getAttribute());
+					if (target == null) {
+						continue;
+					}
+					
+					Integer formulaId = formulaIndex.get(to.getFormula());
+					if (formulaId == null) {
+						formulaId = formulas.size();
+						formulaIndex.put(to.getFormula(), formulaId);
+						formulas.add(to.getFormula());
+					}
+					
+					if (edges == targets.length) {
+						targets = Arrays.copyOf(targets, edges * 2);
+						formulaIds = Arrays.copyOf(formulaIds, edges * 2);
+					}
+					targets[edges] = target;
+					formulaIds[edges++] = formulaId;
+				}
+			}
+		}
+		offsets[v] = edges;
+		
+		return new TransitionGraph(ids.toArray(new String[0]), idToIndex, offsets, 
+				Arrays.copyOf(targets, edges), Arrays.copyOf(formulaIds, edges), formulas);
+	}
+	
+	/**
+	 * detached copies transition conditions and attribute declarations they refer to out of
+	 * their resource, so graph can be analysed after read lock of the document is released,
+	 * while the document itself keeps changing
+     * @return graph sharing arrays of this one with copied conditions
+     */
+	public TransitionGraph detached() {
+		return new TransitionGraph(this, ModelSnapshot.detach(formulas));
+	}
+	
+	private TransitionGraph(TransitionGraph graph, List<Expression> _formulas) {
+		ids = graph.ids;
+		idToIndex = graph.idToIndex;
+		offsets = graph.offsets;
+		targets = graph.targets;
+		formulaIds = graph.formulaIds;
+		formulas = _formulas;
+		component = graph.component;
+		componentCount = graph.componentCount;
+		cyclicComponent = graph.cyclicComponent;
+	}
+	
+	public int size() {
+		return ids.length;
+	}
+	
+	public boolean contains(String attrId) {
+		return idToIndex.containsKey(attrId);
+	}
+	
+	/**
+	 * findComponents fills component ids with iterative Tarjan's algorithm,
+	 * explicit stacks keep long attribute chains from overflowing thread stack
+     * @return number of strongly connected components
+     */
+	private int findComponents() {
+		int n = ids.length;
+		int[] index = new int[n];
+		int[] low = new int[n];
+		int[] edge = new int[n];
+		int[] stack = new int[n];
+		int[] callStack = new int[n];
+		boolean[] onStack = new boolean[n];
+		Arrays.fill(index, -1);
+		
+		int counter = 0;
+		int components = 0;
+		int sp = 0;
+		for (int root = 0; root < n; root++) {
+			if (index[root] != -1) {
+				continue;
+			}
+			
+			int csp = 0;
+			index[root] = low[root] = counter++;
+			edge[root] = offsets[root];
+			stack[sp++] = root;
+			onStack[root] = true;
+			callStack[csp++] = root;
+			
+			while (csp > 0) {
+				int v = callStack[csp - 1];
+				if (edge[v] < offsets[v + 1]) {
+					int w = targets[edge[v]++];
+					if (index[w] == -1) {
+						index[w] = low[w] = counter++;
+						edge[w] = offsets[w];
+						stack[sp++] = w;
+						onStack[w] = true;
+						callStack[csp++] = w;
+					} else if (onStack[w]) {
+						low[v] = Math.min(low[v], index[w]);
+					}
+					continue;
+				}
+				
+				csp--;
+				if (csp > 0) {
+					int parent = callStack[csp - 1];
+					low[parent] = Math.min(low[parent], low[v]);
+				}
+				
+				if (low[v] == index[v]) {
+					int w;
+					do {
+						w = stack[--sp];
+						onStack[w] = false;
+						component[w] = components;
+					} while (w != v);
+					components++;
+				}
+			}
+		}
+		return components;
+	}
+	
+	/**
+	 * markReachable finds all attributes reachable from given one
+     * @param start index of attribute search starts from
+     * @return reachability flag of every attribute
+     */
+	public boolean[] markReachable(int start) {
+		boolean[] reachable = new boolean[ids.length];
+		int[] stack = new int[ids.length];
+		int sp = 0;
+		reachable[start] = true;
+		stack[sp++] = start;
+		
+		while (sp > 0) {
+			int v = stack[--sp];
+			for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+				if (!reachable[targets[e]]) {
+					reachable[targets[e]] = true;
+					stack[sp++] = targets[e];
+				}
+			}
+		}
+		return reachable;
+	}
+	
+	public boolean isCyclic(int v) {
+		return cyclicComponent[component[v]];
+	}
+}
@@ -1,31 +1,40 @@
-public class TransitionStateMachine {
+public class TransitionStateMachine implements AutoCloseable {
+	public static final String UNKNOWN_HEADER = "Unknown attrs (solver budget exhausted):\n";
+
 	public TransitionStateMachine() {
-		idToIndex = new HashMap<>();
-		indexToId = new HashMap<>();
-		links = new HashMap<>();
-		try {
-			parser = new SMTExpressionParser(new SMTManager());
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		this(new ArrayList<>());
 	}
 
 	TransitionStateMachine(List<DeviceTypeNode> _graph) {
-		this();
+		this(_graph, new SolverBudget());
+	}
+
+	TransitionStateMachine(List<DeviceTypeNode> _graph, SolverBudget _budget) {
+		this(AnalysisMetrics.shared().timed("compile", () -> TransitionGraph.compile(_graph)), _budget);
+	}
+
+	TransitionStateMachine(TransitionGraph _graph, SolverBudget _budget) {
+		budget = _budget;
 		graph = _graph;
 
-		int index = 0;
-		for (DeviceTypeNode node : graph) {
+		formulas = new BooleanFormula[graph.formulas.size()];
+		atoms = new IntervalPreSolver.Atom[graph.formulas.size()][];
+		atomsParsed = new boolean[graph.formulas.size()];
+		structuralKeys = new String[graph.formulas.size()];
+		structuralKeysBuilt = new boolean[graph.formulas.size()];
+		conditions = new ArrayList<List<BitSet>>();
+		pending = new ArrayList<List<BitSet>>();
+		for (int i = 0; i < graph.size(); i++) {
+			conditions.add(new ArrayList<>());
+			pending.add(new ArrayList<>());
+		}
 
-			for (AttributeData attr : node.getAttributes()) {
-				String attrId = String.format("%s:%s", node.getId(), attr.getName());
-				indexToId.put(index, attrId);
-				links.put(index, attr.getTransitions());
-				idToIndex.put(attrId, index++);
-			}
+		// Context is leased last, so failing setup never leaks it. Without context nothing is decided
+		try {
+			parser = new SMTExpressionParser(SMTManagerPool.shared().acquire(budget));
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
-		reachable = new ArrayList<Integer>(Collections.nCopies(links.size(), 0));
-		solvable = new ArrayList<Integer>(Collections.nCopies(links.size(), 0));
 	}
 
 // TODO Implement formula-based BFS search
@@ -59,73 +68,554 @@ public class TransitionStateMachine {
 //		return availableIds;
 //	}
 
-	private Boolean dfs(Integer v) {
-		reachable.set(v, 1);
-
-		for (TransitionData to : links.get(v)) {
-			String attrId = String.format("%s:%s", to.getDevType(), to.getAttribute());
-			// If not visited, go and check cycle there
-			if (reachable.get(idToIndex.get(attrId)) == 0 && dfs(idToIndex.get(attrId))) {
+	/**
+	 * cycleSearch checks if there is a cycle reachable from given attribute
+     * @param attrName attribute id in "type:attr" format
+     * @return true if cycle found
+     */
+	public Boolean cycleSearch(String attrName) {
+		reachable = graph.markReachable(graph.idToIndex.get(attrName));
+		for (int v = 0; v < graph.size(); v++) {
+			if (reachable[v] && graph.isCyclic(v)) {
 				return true;
 			}
+		}
+		return false;
+	}
 
-			// If visited on current search state, cycle found
-			if (reachable.get(idToIndex.get(attrId)) == 1) {
-				return true;
+	private BooleanFormula getFormula(int id) {
+		if (formulas[id] == null) {
+			formulas[id] = parser.parseSMT(graph.formulas.get(id));
+		}
+		return formulas[id];
+	}
+
+	/**
+	 * presolve decides path condition without prover when all its formulas are 
+	 * conjunctions of comparisons with constants
+     * @param condition ids of transition formulas forming path condition
+     * @return true if path condition is unsatisfiable, null if prover is needed
+     */
+	private Boolean presolve(BitSet condition) {
+		List<IntervalPreSolver.Atom[]> conjuncts = new ArrayList<>();
+		for (int id = condition.nextSetBit(0); id >= 0; id = condition.nextSetBit(id + 1)) {
+			if (!atomsParsed[id]) {
+				atoms[id] = IntervalPreSolver.atoms(graph.formulas.get(id));
+				atomsParsed[id] = true;
 			}
+			if (atoms[id] == null) {
+				AnalysisMetrics.shared().increment(AnalysisMetrics.PRESOLVER_UNDECIDED);
+				return null;
+			}
+			conjuncts.add(atoms[id]);
 		}
 
-		reachable.set(v, 2);
-		return false;
+		Boolean unsat = IntervalPreSolver.isUnsat(conjuncts);
+		AnalysisMetrics.shared().increment(unsat == null 
+				? AnalysisMetrics.PRESOLVER_UNDECIDED : AnalysisMetrics.PRESOLVER_DECIDED);
+		return unsat;
 	}
 
-	public Boolean cycleSearch(String attrName) {
-		return dfs(idToIndex.get(attrName));
+	/**
+	 * Frame is a path condition asserted on the prover once and shared by all checks extending it,
+	 * so every check pushes only formulas it adds on top of the frame
+	 */
+	private static final class Frame {
+		final BitSet base;
+		final HashMap<BooleanFormula, Integer> idsByFormula = new HashMap<>();
+		boolean pushed;
+
+		Frame(BitSet _base) {
+			base = _base;
+		}
+	}
+
+	/**
+	 * openProver opens prover environment shared by current analysis
+     * @param options prover options, kept to open replacement of interrupted prover
+     */
+	private void openProver(ProverOptions... options) {
+		proverOptions = options;
+		prover = parser.formulaManager.newProver(options);
+	}
+
+	/**
+	 * renewProver replaces prover whose query ran out of time, as interrupted prover
+	 * can not answer anymore. Frame asserted on it is asserted again by the next check
+     */
+	private void renewProver() {
+		closeProver();
+		prover = parser.formulaManager.newProver(proverOptions);
+	}
+
+	private void closeProver() {
+		if (entered != null) {
+			entered.pushed = false;
+			entered.idsByFormula.clear();
+			entered = null;
+		}
+		if (prover != null) {
+			parser.formulaManager.closeProver(prover);
+			prover = null;
+		}
 	}
 
-	private void isSolvable(Integer v, BooleanFormula constraints) {
-		if (constraints != null) {
-			try (ProverEnvironment prover = parser.formulaManager.context
-					.newProverEnvironment(ProverOptions.GENERATE_MODELS)) {
-				prover.addConstraint(constraints);
-				if (prover.isUnsat()) {
-					return;
+	/**
+	 * enter asserts formulas of frame in a new prover scope, unless it is already done
+     * @param frame path condition shared by following checks
+     */
+	private void enter(Frame frame) throws InterruptedException {
+		if (frame.pushed) {
+			return;
+		}
+		prover.push();
+		frame.pushed = true;
+		entered = frame;
+		for (int id = frame.base.nextSetBit(0); id >= 0; id = frame.base.nextSetBit(id + 1)) {
+			prover.addConstraint(getFormula(id));
+			frame.idsByFormula.put(getFormula(id), id);
+		}
+	}
+
+	/**
+	 * leave drops prover scope of frame once no more checks extend it
+     * @param frame path condition shared by previous checks
+     */
+	private void leave(Frame frame) {
+		if (frame.pushed) {
+			frame.pushed = false;
+			frame.idsByFormula.clear();
+			entered = null;
+			prover.pop();
+		}
+	}
+
+	/**
+	 * isSolvable checks given path condition on top of an incremental prover.
+	 * Only formulas condition adds to its frame are pushed for the check.
+	 * Verdicts of prover are stored in persistent cache, so they survive language server restart
+     * @param condition ids of transition formulas forming path condition, contains base of frame
+	 * @param frame path condition already asserted or to be asserted on prover
+     * @return true if conjunction of given formulas is satisfiable, null if solver budget ran out
+     */
+	private Boolean isSolvable(BitSet condition, Frame frame)
+			throws SolverException, InterruptedException {
+		if (condition.isEmpty()) {
+			return true;
+		}
+
+		if (conflicts.subsumes(condition)) {
+			AnalysisMetrics.shared().increment(AnalysisMetrics.CONFLICTS_PRUNED);
+			return false;
+		}
+
+		Boolean presolved = presolve(condition);
+		if (presolved != null) {
+			if (presolved) {
+				learn(condition);
+			}
+			return !presolved;
+		}
+
+		PersistentAnalysisCache persistent = PersistentAnalysisCache.active();
+		String verdictKey = persistent == null ? null : verdictKey(condition);
+		Boolean stored = verdictKey == null ? null : persistent.getVerdict(verdictKey);
+		if (stored != null) {
+			if (stored) {
+				learn(condition);
+			}
+			return !stored;
+		}
+
+		Boolean unsat = prove(condition, frame);
+		if (verdictKey != null && unsat != null) {
+			persistent.putVerdict(verdictKey, unsat);
+		}
+		return unsat == null ? null : !unsat;
+	}
+
+	/**
+	 * verdictKey builds key of path condition for verdicts stored on disk. Structural keys
+	 * of its formulas are sorted, so the key does not depend on formula ids of this model
+     * @param condition ids of transition formulas forming path condition
+     * @return key of condition, null if it contains expressions parser does not know
+     */
+	private String verdictKey(BitSet condition) {
+		TreeSet<String> parts = new TreeSet<>();
+		for (int id = condition.nextSetBit(0); id >= 0; id = condition.nextSetBit(id + 1)) {
+			if (!structuralKeysBuilt[id]) {
+				structuralKeys[id] = SMTExpressionParser.structuralKey(graph.formulas.get(id));
+				structuralKeysBuilt[id] = true;
+			}
+			if (structuralKeys[id] == null) {
+				return null;
+			}
+			parts.add(structuralKeys[id]);
+		}
+		return "(and* " + String.join(" ", parts) + ")";
+	}
+
+	/**
+	 * prove checks path condition with solver portfolio or incremental prover
+     * @param condition ids of transition formulas forming path condition, contains base of frame
+	 * @param frame path condition already asserted or to be asserted on prover
+     * @return true if conjunction of given formulas is unsatisfiable, null if solver budget ran out
+     */
+	private Boolean prove(BitSet condition, Frame frame) throws SolverException, InterruptedException {
+		if (SolverPortfolio.enabled()) {
+			List<BooleanFormula> constraints = new ArrayList<>();
+			for (int id = condition.nextSetBit(0); id >= 0; id = condition.nextSetBit(id + 1)) {
+				constraints.add(getFormula(id));
+			}
+			Boolean unsat = SolverPortfolio.shared().isUnsat(parser.formulaManager, constraints, budget);
+			if (Boolean.TRUE.equals(unsat)) {
+				learn(condition);
+			}
+			return unsat;
+		}
+
+		if (parser.formulaManager.poisoned) {
+			return null;
+		}
+
+		enter(frame);
+		prover.push();
+		try {
+			HashMap<BooleanFormula, Integer> added = new HashMap<>();
+			for (int id = condition.nextSetBit(0); id >= 0; id = condition.nextSetBit(id + 1)) {
+				if (!frame.base.get(id)) {
+					prover.addConstraint(getFormula(id));
+					added.put(getFormula(id), id);
 				}
+			}
+			Boolean unsat = parser.formulaManager.isUnsat(prover, budget);
+			if (Boolean.TRUE.equals(unsat)) {
+				learn(coreOf(prover, frame, added, condition));
+			}
+			return unsat;
+		} finally {
+			if (parser.formulaManager.isInterrupted(prover) && !parser.formulaManager.poisoned) {
+				// Only this query ran out of time, the analysis goes on with a new prover
+				renewProver();
+			} else if (!parser.formulaManager.poisoned) {
+				prover.pop();
+			}
+		}
+	}
+
+	/**
+	 * coreOf maps unsat core of prover back to transition formula ids
+     * @param prover prover environment which has just answered unsat
+	 * @param frame frame check was made on
+	 * @param added formula ids by formulas added on top of the frame
+	 * @param condition path condition checked, used when prover gives no core
+     * @return ids of formulas of unsat core
+     */
+	private BitSet coreOf(ProverEnvironment prover, Frame frame, HashMap<BooleanFormula, Integer> added,
+			BitSet condition) {
+		BitSet core = new BitSet();
+		try {
+			for (BooleanFormula formula : prover.getUnsatCore()) {
+				Integer id = added.containsKey(formula) ? added.get(formula) : frame.idsByFormula.get(formula);
+				if (id == null) {
+					return condition;
+				}
+				core.set(id);
+			}
+		} catch (Exception e) {
+			return condition;
+		}
+		return core.isEmpty() ? condition : core;
+	}
+
+	private void learn(BitSet conflict) {
+		conflicts.add((BitSet) conflict.clone());
+		AnalysisMetrics.shared().increment(AnalysisMetrics.CONFLICTS_LEARNED);
+	}
+
+	/**
+	 * addCondition extends path-condition summary of an attribute.
+	 * Summary is a set of formula id sets where no set contains another one, so
+	 * condition stronger than already known one never grows the summary
+     * @param summary known conditions of attribute
+	 * @param delta conditions not propagated further yet, may be null
+	 * @param condition ids of transition formulas leading to attribute
+	 * @param frame frame condition extends
+     * @return true if summary grew and attribute has to be explored again
+     */
+	private boolean addCondition(List<BitSet> summary, List<BitSet> delta, BitSet condition, Frame frame)
+			throws SolverException, InterruptedException {
+		for (BitSet known : summary) {
+			BitSet rest = (BitSet) known.clone();
+			rest.andNot(condition);
+			if (rest.isEmpty()) {
+				return false;
+			}
+		}
+
+		Boolean solvable = isSolvable(condition, frame);
+		if (solvable == null) {
+			// Condition is dropped, so nothing found unreachable afterwards is certain
+			incomplete = true;
+			return false;
+		}
+		if (!solvable) {
+			return false;
+		}
+
+		Predicate<BitSet> weaker = known -> {
+			BitSet rest = (BitSet) condition.clone();
+			rest.andNot(known);
+			return rest.isEmpty();
+		};
+		summary.removeIf(weaker);
+		summary.add(condition);
+		if (delta != null) {
+			delta.removeIf(weaker);
+			delta.add(condition);
+		}
+		return true;
+	}
+
+	/**
+	 * propagateConditions computes reachable path conditions of all attributes
+	 * from given one. Attribute gets back to the worklist only when its summary
+	 * grows, and only newly added conditions are pushed through its transitions.
+	 * Every new condition is asserted once as a frame, and each transition adds its formula on top
+     * @param start index of attribute search starts from
+     */
+	private void propagateConditions(int start)
+			throws SolverException, InterruptedException {
+		// Circular queue, every attribute is queued at most once at a time
+		int[] worklist = new int[graph.size() + 1];
+		int head = 0;
+		int tail = 0;
+		boolean[] queued = new boolean[graph.size()];
+		addCondition(conditions.get(start), pending.get(start), new BitSet(), new Frame(new BitSet()));
+		worklist[tail++] = start;
+		queued[start] = true;
+
+		long expanded = 0;
+		while (head != tail) {
+			if (budget.exhausted()) {
+				incomplete = true;
+				break;
+			}
+			int v = worklist[head];
+			head = (head + 1) % worklist.length;
+			queued[v] = false;
+			expanded++;
+			List<BitSet> delta = new ArrayList<>(pending.get(v));
+			pending.get(v).clear();
+
+			for (BitSet condition : delta) {
+				Frame frame = new Frame(condition);
+				try {
+					for (int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++) {
+						int next = graph.targets[e];
+						BitSet extended = (BitSet) condition.clone();
+						extended.set(graph.formulaIds[e]);
+
+						boolean grown = addCondition(conditions.get(next), pending.get(next), extended, frame);
+						if (grown && !queued[next]) {
+							worklist[tail] = next;
+							tail = (tail + 1) % worklist.length;
+							queued[next] = true;
+						}
+					}
+				} finally {
+					leave(frame);
+				}
+			}
+		}
+		AnalysisMetrics.shared().add(AnalysisMetrics.NODES_EXPANDED, expanded);
+	}
+
+	public String proceedSat(String attrName) {
+		int start = graph.idToIndex.get(attrName);
+		reachable = graph.markReachable(start);
+		if (parser == null) {
+			incomplete = true;
+		} else {
+			try (AnalysisMetrics.Timer timer = AnalysisMetrics.shared().start("solve")) {
+				openProver(ProverOptions.GENERATE_MODELS, ProverOptions.GENERATE_UNSAT_CORE);
+				propagateConditions(start);
 			} catch (Exception e) {
+				incomplete = true;
 				e.printStackTrace();
+			} finally {
+				closeProver();
 			}
 		}
-		solvable.set(v, solvable.get(v) + 1);
 
-		for (TransitionData to : links.get(v)) {
-			String attrId = String.format("%s:%s", to.getDevType(), to.getAttribute());
-			if (constraints == null) {
-				isSolvable(idToIndex.get(attrId), parser.parseSMT(to.getFormula()));
-			} else {
-				isSolvable(idToIndex.get(attrId),
-						parser.formulaManager.bmgr.and(constraints, parser.parseSMT(to.getFormula())));
+		String result = incomplete ? UNKNOWN_HEADER : "Unreachable attrs:\n";
+		for (int i = 0; i < graph.size(); i++) {
+			if (reachable[i] && conditions.get(i).isEmpty()) {
+				result += graph.ids[i] + "\n";
 			}
 		}
+
+		return result;
 	}
 
-	public String proceedSat(String attrName) {
-		isSolvable(idToIndex.get(attrName), null);
+	/**
+	 * summarize computes satisfiable path conditions from given acyclic attribute
+	 * to every attribute reachable from it. Summaries of its successors are
+	 * reused, so each transition is composed with them only once.
+	 * Formula of transition is asserted once as a frame for all successor conditions
+     * @param v index of attribute
+	 * @param summaries summaries of already processed attributes
+     * @return conditions by index of reachable attribute
+     */
+	private HashMap<Integer, List<BitSet>> summarize(int v, List<HashMap<Integer, List<BitSet>>> summaries)
+			throws SolverException, InterruptedException {
+		HashMap<Integer, List<BitSet>> summary = new HashMap<>();
+		AnalysisMetrics.shared().increment(AnalysisMetrics.NODES_EXPANDED);
+
+		for (int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++) {
+			int next = graph.targets[e];
+			BitSet own = new BitSet();
+			own.set(graph.formulaIds[e]);
+			Frame frame = new Frame(own);
+			try {
+				addCondition(summary.computeIfAbsent(next, key -> new ArrayList<>()), null, own, frame);
+
+				for (Map.Entry<Integer, List<BitSet>> entry : summaries.get(next).entrySet()) {
+					for (BitSet condition : entry.getValue()) {
+						BitSet extended = (BitSet) condition.clone();
+						extended.set(graph.formulaIds[e]);
+						addCondition(summary.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()), null, extended,
+								frame);
+					}
+				}
+			} finally {
+				leave(frame);
+			}
+		}
+
+		summary.values().removeIf(List::isEmpty);
+		return summary;
+	}
+
+	/**
+	 * proceedAll checks all attributes of the model in one pass.
+	 * Components of transition graph are processed in reverse topological order,
+	 * so reachable sets and path-condition summaries of successors are ready
+	 * and shared by every attribute leading to them
+     * @return unreachable and cyclic attributes of every start attribute
+     */
+	public ReachabilityReport proceedAll() {
+		ReachabilityReport report = new ReachabilityReport();
+		int n = graph.size();
+
+		List<List<Integer>> members = new ArrayList<>();
+		for (int c = 0; c < graph.componentCount; c++) {
+			members.add(new ArrayList<>());
+		}
+		BitSet cyclic = new BitSet(n);
+		for (int v = 0; v < n; v++) {
+			members.get(graph.component[v]).add(v);
+			if (graph.isCyclic(v)) {
+				cyclic.set(v);
+			}
+		}
+
+		BitSet[] componentReach = new BitSet[graph.componentCount];
+		boolean[] tainted = new boolean[graph.componentCount];
+		List<HashMap<Integer, List<BitSet>>> summaries = new ArrayList<>(Collections.nCopies(n, null));
+
+		// Without solver context every attribute is reported as unknown
+		incomplete |= parser == null;
+		try (AnalysisMetrics.Timer timer = AnalysisMetrics.shared().start("solve")) {
+			if (parser != null) {
+				openProver(ProverOptions.GENERATE_UNSAT_CORE);
+			}
+			for (int c = 0; c < graph.componentCount; c++) {
+				BitSet reach = new BitSet(n);
+				tainted[c] = graph.cyclicComponent[c];
+				for (int v : members.get(c)) {
+					reach.set(v);
+					for (int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++) {
+						int next = graph.component[graph.targets[e]];
+						if (next != c) {
+							reach.or(componentReach[next]);
+							tainted[c] |= tainted[next];
+						}
+					}
+				}
+				componentReach[c] = reach;
 
-		String result = "Unreachable attrs:\n";
-		for (int i = 0; i < reachable.size(); i++) {
-			if (reachable.get(i) == 2 && solvable.get(i) == 0) {
-				result += indexToId.get(i) + "\n";
+				for (int v : members.get(c)) {
+					if (tainted[c]) {
+						BitSet cycles = (BitSet) reach.clone();
+						cycles.and(cyclic);
+						report.addCycles(graph.ids[v], idsOf(cycles));
+						continue;
+					}
+
+					BitSet unreachable = (BitSet) reach.clone();
+					unreachable.clear(v);
+					if (!incomplete && !budget.exhausted()) {
+						// Acyclic component consists of a single attribute
+						summaries.set(v, summarize(v, summaries));
+					}
+					if (incomplete || budget.exhausted()) {
+						// Summaries computed from now on may miss dropped conditions
+						incomplete = true;
+						report.addUnknown(graph.ids[v], idsOf(unreachable));
+						continue;
+					}
+					for (int w : summaries.get(v).keySet()) {
+						unreachable.clear(w);
+					}
+					report.addUnreachable(graph.ids[v], idsOf(unreachable));
+				}
 			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			closeProver();
 		}
 
+		return report;
+	}
+
+	private List<String> idsOf(BitSet attributes) {
+		List<String> result = new ArrayList<>();
+		for (int v = attributes.nextSetBit(0); v >= 0; v = attributes.nextSetBit(v + 1)) {
+			result.add(graph.ids[v]);
+		}
 		return result;
 	}
 
+	@Override
+	public void close() {
+		if (parser != null) {
+			parser.formulaManager.close();
+		}
+	}
+
 	SMTExpressionParser parser;
-	HashMap<String, Integer> idToIndex;
-	HashMap<Integer, String> indexToId;
-	HashMap<Integer, List<TransitionData>> links;
-	List<DeviceTypeNode> graph;
-	ArrayList<Integer> reachable;
-	ArrayList<Integer> solvable;
+	// Prover shared by current analysis, replaced when its query runs out of time
+	ProverEnvironment prover;
+	ProverOptions[] proverOptions;
+	// Frame asserted on prover at the moment
+	Frame entered;
+	SolverBudget budget;
+	// Set when solver budget ran out and some path conditions were not checked
+	boolean incomplete;
+	TransitionGraph graph;
+	boolean[] reachable;
+	BooleanFormula[] formulas;
+	// Comparisons of every transition formula, null for formulas interval pre-solver can not decide
+	IntervalPreSolver.Atom[][] atoms;
+	boolean[] atomsParsed;
+	// Structural keys of transition formulas, built once verdicts are looked up on disk,
+	// null for formulas parser does not know
+	String[] structuralKeys;
+	boolean[] structuralKeysBuilt;
+	// Unsatisfiable sets of transition formulas learned during analysis
+	ConflictSet conflicts = new ConflictSet();
+	ArrayList<List<BitSet>> conditions;
+	ArrayList<List<BitSet>> pending;
 }
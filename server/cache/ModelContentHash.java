@@ -0,0 +1,72 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.xtext.parser.IParseResult;
+import org.eclipse.xtext.resource.XtextResource;
+
+/**
+ * ModelContentHash class documentation.
+ *
+ * This class is a ModelContentHash representation.
+ * It computes content hash of a model and resources it depends on, 
+ * the hash is used as a part of result cache keys
+ *
+ * @author Garaev Timur
+ */
+public class ModelContentHash {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	/**
+	 * of hashes uri and text of every given resource
+     * @param resources resources analysis depends on
+     * @return hex encoded SHA-256 hash
+     */
+	public static String of(Collection<Resource> resources) {
+		List<Resource> sorted = new ArrayList<>(resources);
+		sorted.sort(Comparator.comparing(resource -> String.valueOf(resource.getURI())));
+		
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		for (Resource resource : sorted) {
+			digest.update(String.valueOf(resource.getURI()).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(textOf(resource).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+		
+		byte[] hash = digest.digest();
+		char[] result = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			result[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+			result[2 * i + 1] = HEX[hash[i] & 0xF];
+		}
+		return new String(result);
+	}
+	
+	/**
+	 * textOf gives source text of Xtext resource.
+	 * Resources without parse result are identified by their modification time stamp
+     * @param resource model resource
+     * @return resource content representation
+     */
+	private static String textOf(Resource resource) {
+		if (resource instanceof XtextResource) {
+			IParseResult parseResult = ((XtextResource) resource).getParseResult();
+			if (parseResult != null && parseResult.getRootNode() != null) {
+				return parseResult.getRootNode().getText();
+			}
+		}
+		return "@" + resource.getTimeStamp();
+	}
+}
@@ -0,0 +1,548 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * PersistentAnalysisCache class documentation.
+ *
+ * This class is a PersistentAnalysisCache representation.
+ * It keeps results of tgen requests and sat verdicts of event and path conditions in a binary file
+ * under <workspace>/.tgen, so the first request after language server restart is served
+ * from disk instead of building transition graph, calling solver and laying diagram out again.
+ *
+ * File starts with format, formula encoding and tool version, a file written by another
+ * version is ignored. Tool version includes hash of analyser classes, so results of a changed
+ * analyser are never served, and cache is disabled when the classes can not be read. Records are [length][kind][key][payload][CRC32], results are kept
+ * as deflated JSON. File is memory-mapped and records are decoded only when requested.
+ *
+ * New records are written together with the mapped ones into the file of the next generation,
+ * analysis.<generation>.cache, a few seconds after the last change and on shutdown. Writing
+ * happens outside of the lock, so requests keep reading and adding records meanwhile.
+ * Files are never replaced: once the new file is written and mapped, older generations are
+ * deleted, and a file still mapped (Windows does not delete those) is deleted by a later flush.
+ * Newest generation which is not damaged is loaded, so a crash while writing loses only
+ * records of the last flush.
+ *
+ * Result keys contain content hash of the model, so a record of an edited model is never
+ * reused. Records of previous contents of a document are dropped, and the oldest records are
+ * dropped once file exceeds tgen.cache.diskBytes
+ *
+ * @author Garaev Timur
+ */
+public class PersistentAnalysisCache {
+	private static final int MAGIC = 0x5447454E;
+	// Raised whenever encoding of stored results changes: 2 - start counts of ReachabilityReport,
+	// 3 - expand_type stores the whole diagram, 4 - "==" conditions are no longer encoded as "!=",
+	// 5 - encoding version of SMTExpressionParser in header, generation files
+	private static final int FORMAT_VERSION = 5;
+	// Classes whose code decides stored results and verdicts
+	private static final String[] ANALYSER_CLASSES = { "TransitionStateMachine", "TransitionGraph",
+			"ReachabilityReport", "ConflictSet", "SMTExpressionParser", "IntervalPreSolver",
+			"EventConditionBatchChecker", "BdmTransitionGenerator", "TransitionDiagramGenerator",
+			"PersistentAnalysisCache" };
+	private static final String TOOL_VERSION = toolVersion();
+	private static final Pattern FILE_NAME = Pattern.compile("analysis\\.(\\d+)\\.cache");
+
+	private static final long MAX_BYTES = Long.getLong("tgen.cache.diskBytes", 256L * 1024 * 1024);
+	private static final long FLUSH_DELAY_MILLIS = 3_000;
+
+	private static final byte STRING = 0;
+	private static final byte REPORT = 1;
+	private static final byte DIAGRAM = 2;
+	private static final byte CONDITIONS = 3;
+	private static final byte VERDICT = 4;
+
+	private static final char SEPARATOR = '\n';
+	private static final String VERDICT_PREFIX = "\0verdict" + SEPARATOR;
+
+	private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "tgen-cache-flush");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static volatile PersistentAnalysisCache active;
+
+	private final Path directory;
+	private final Gson gson = new Gson();
+	// Only one flush writes at a time, it takes the monitor of cache only to copy and swap slots
+	private final Object flushLock = new Object();
+	private long generation;
+	private MappedByteBuffer mapped;
+	private ScheduledFuture<?> pendingFlush;
+
+	// Insertion ordered, so iteration starts from the oldest record
+	private final LinkedHashMap<String, Slot> slots = new LinkedHashMap<>();
+
+	/**
+	 * Slot is one record: either a payload in mapped file or a new payload not written yet
+	 */
+	private static class Slot {
+		final byte kind;
+		final int offset;
+		final int length;
+		final byte[] payload;
+
+		Slot(byte _kind, int _offset, int _length, byte[] _payload) {
+			kind = _kind;
+			offset = _offset;
+			length = _length;
+			payload = _payload;
+		}
+	}
+
+	private PersistentAnalysisCache(Path _directory) {
+		directory = _directory;
+	}
+
+	/**
+	 * open loads cache file of given directory and makes it active cache.
+	 * Missing, damaged or outdated file gives empty cache
+     * @param directory cache directory, usually <workspace>/.tgen
+     * @return opened cache
+     */
+	public static synchronized PersistentAnalysisCache open(Path directory) {
+		if (TOOL_VERSION == null) {
+			throw new IllegalStateException("version of analyser classes is unknown");
+		}
+		if (active != null && active.directory.equals(directory)) {
+			return active;
+		}
+
+		PersistentAnalysisCache cache = new PersistentAnalysisCache(directory);
+		cache.loadNewest();
+
+		if (active == null) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				PersistentAnalysisCache current = active;
+				if (current != null) {
+					current.flush();
+				}
+			}, "tgen-cache-shutdown"));
+		} else {
+			active.flush();
+		}
+		active = cache;
+		return cache;
+	}
+
+	/**
+	 * active gives cache opened for current workspace
+     * @return active cache, null if persistence is not set up
+     */
+	public static PersistentAnalysisCache active() {
+		return active;
+	}
+
+	/**
+	 * get gives stored result of a request
+     * @param key cache key made by TransitionResultCache.key()
+     * @return stored result, null if there is no valid one
+     */
+	public synchronized Object get(String key) {
+		Slot slot = slots.get(key);
+		if (slot == null || slot.kind == VERDICT) {
+			return null;
+		}
+
+		try {
+			String json = new String(inflate(payloadOf(slot)), StandardCharsets.UTF_8);
+			switch (slot.kind) {
+				case STRING:
+					return gson.fromJson(json, String.class);
+				case REPORT:
+					return gson.fromJson(json, ReachabilityReport.class);
+				case CONDITIONS:
+					return gson.fromJson(json, new TypeToken<HashMap<String, String>>() {}.getType());
+				case DIAGRAM:
+					JsonObject response = gson.fromJson(json, JsonObject.class);
+					return new SModelResponse(
+							response.get("isOk").getAsBoolean(),
+							response.get("message").getAsString(),
+							response.get("root"),
+							gson.fromJson(response.get("data"), new TypeToken<HashMap<String, String>>() {}.getType()),
+							gson.fromJson(response.get("strings"), new TypeToken<List<String>>() {}.getType())
+						);
+				default:
+					return null;
+			}
+		} catch (RuntimeException | DataFormatException e) {
+			slots.remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * put stores result of a request
+     * @param key cache key made by TransitionResultCache.key()
+	 * @param value request result
+     */
+	public synchronized void put(String key, Object value) {
+		byte kind;
+		if (value instanceof String) {
+			kind = STRING;
+		} else if (value instanceof ReachabilityReport) {
+			kind = REPORT;
+		} else if (value instanceof SModelResponse) {
+			kind = DIAGRAM;
+		} else if (value instanceof Map) {
+			kind = CONDITIONS;
+		} else {
+			return;
+		}
+
+		byte[] payload = deflate(gson.toJson(value).getBytes(StandardCharsets.UTF_8));
+		slots.remove(key);
+		slots.put(key, new Slot(kind, -1, payload.length, payload));
+		scheduleFlush();
+	}
+
+	/**
+	 * getVerdict gives stored sat verdict of a condition
+     * @param structuralKey structural key of condition made by SMTExpressionParser
+     * @return true if condition is unsatisfiable, null if it was not checked yet
+     */
+	public synchronized Boolean getVerdict(String structuralKey) {
+		Slot slot = slots.get(VERDICT_PREFIX + structuralKey);
+		return slot == null || slot.kind != VERDICT ? null : payloadOf(slot)[0] != 0;
+	}
+
+	public synchronized void putVerdict(String structuralKey, boolean unsat) {
+		String key = VERDICT_PREFIX + structuralKey;
+		if (!slots.containsKey(key)) {
+			slots.put(key, new Slot(VERDICT, -1, 1, new byte[] { (byte) (unsat ? 1 : 0) }));
+			scheduleFlush();
+		}
+	}
+
+	/**
+	 * dropStale drops results of previous contents of a document
+     * @param uri resource uri
+	 * @param contentHash current content hash of the model
+     */
+	public synchronized void dropStale(String uri, String contentHash) {
+		String prefix = uri + SEPARATOR;
+		String current = prefix + contentHash + SEPARATOR;
+		if (slots.keySet().removeIf(key -> key.startsWith(prefix) && !key.startsWith(current))) {
+			scheduleFlush();
+		}
+	}
+
+	/**
+	 * loadNewest loads the newest generation which is not damaged, the others are deleted
+     */
+	private synchronized void loadNewest() {
+		List<Long> generations = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path path : files) {
+				Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+				if (matcher.matches()) {
+					generations.add(Long.parseLong(matcher.group(1)));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// Directory does not exist yet, the first flush creates it
+		}
+		generations.sort((a, b) -> Long.compare(b, a));
+
+		for (long candidate : generations) {
+			generation = Math.max(generation, candidate);
+			try {
+				load(fileOf(candidate));
+				break;
+			} catch (IOException | RuntimeException e) {
+				slots.clear();
+				mapped = null;
+				System.err.println("Analysis cache " + fileOf(candidate) + " is ignored: " + e.getMessage());
+			}
+		}
+		deleteOlder();
+	}
+
+	private Path fileOf(long _generation) {
+		return directory.resolve("analysis." + _generation + ".cache");
+	}
+
+	/**
+	 * deleteOlder deletes cache files other than the mapped one, file which can not be
+	 * deleted yet is left for a later flush
+     */
+	private void deleteOlder() {
+		Path current = mapped == null ? null : fileOf(generation);
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path path : files) {
+				String name = path.getFileName().toString();
+				boolean cacheFile = FILE_NAME.matcher(name).matches() || name.equals("analysis.cache")
+						|| name.equals("analysis.cache.tmp");
+				if (cacheFile && !path.equals(current)) {
+					try {
+						Files.deleteIfExists(path);
+					} catch (IOException e) {
+						// Still mapped somewhere
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// Nothing to delete
+		}
+	}
+
+	private void scheduleFlush() {
+		if (pendingFlush != null) {
+			pendingFlush.cancel(false);
+		}
+		pendingFlush = FLUSHER.schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * flush writes all records into the file of the next generation and maps it.
+	 * Records added or replaced while the file is written stay in memory until the next flush
+     */
+	public void flush() {
+		synchronized (flushLock) {
+			List<String> keep = new ArrayList<>();
+			List<Slot> kept = new ArrayList<>();
+			Set<Slot> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+			MappedByteBuffer source;
+			long next;
+			synchronized (this) {
+				pendingFlush = null;
+				// Oldest records are not written once file grows over limit, and are dropped from memory too
+				long total = 0;
+				List<String> keys = new ArrayList<>(slots.keySet());
+				for (int i = keys.size() - 1; i >= 0; i--) {
+					Slot slot = slots.get(keys.get(i));
+					total += recordSize(keys.get(i), slot);
+					if (total > MAX_BYTES) {
+						dropped.add(slot);
+					} else {
+						keep.add(0, keys.get(i));
+						kept.add(0, slot);
+					}
+				}
+				source = mapped;
+				next = generation + 1;
+			}
+
+			Path target = fileOf(next);
+			try {
+				Files.createDirectories(directory);
+				int[] offsets = new int[keep.size()];
+				try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+					channel.write(header());
+					for (int i = 0; i < keep.size(); i++) {
+						byte[] keyBytes = keep.get(i).getBytes(StandardCharsets.UTF_8);
+						offsets[i] = (int) channel.position() + 4 + 1 + 4 + keyBytes.length + 4;
+						channel.write(record(keyBytes, kept.get(i), source));
+					}
+					channel.force(true);
+				}
+				MappedByteBuffer written = map(target);
+
+				synchronized (this) {
+					// Slots replaced meanwhile keep their new payload, slots not written were dropped for size
+					Map<Slot, Slot> moved = new IdentityHashMap<>();
+					for (int i = 0; i < keep.size(); i++) {
+						moved.put(kept.get(i), new Slot(kept.get(i).kind, offsets[i], kept.get(i).length, null));
+					}
+					slots.values().removeIf(dropped::contains);
+					slots.replaceAll((key, slot) -> moved.getOrDefault(slot, slot));
+					mapped = written;
+					generation = next;
+					deleteOlder();
+				}
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Analysis cache " + target + " is not written: " + e.getMessage());
+				try {
+					Files.deleteIfExists(target);
+				} catch (IOException ignored) {
+					// Damaged file is rejected and deleted by the next load
+				}
+			}
+		}
+	}
+
+	private static MappedByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * load maps cache file and indexes its records, damaged file is rejected as a whole
+     * @param path cache file of one generation
+     */
+	private void load(Path path) throws IOException {
+		mapped = map(path);
+
+		ByteBuffer buffer = mapped.duplicate();
+		if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+				|| buffer.getInt() != SMTExpressionParser.ENCODING_VERSION
+				|| !TOOL_VERSION.equals(readString(buffer))) {
+			throw new IOException("cache of another version");
+		}
+
+		while (buffer.hasRemaining()) {
+			int length = buffer.getInt();
+			int start = buffer.position();
+			byte kind = buffer.get();
+			String key = readString(buffer);
+			int payloadLength = buffer.getInt();
+			int payloadOffset = buffer.position();
+			buffer.position(payloadOffset + payloadLength);
+			int end = buffer.position();
+
+			CRC32 crc = new CRC32();
+			ByteBuffer checked = mapped.duplicate();
+			checked.position(start).limit(end);
+			crc.update(checked);
+			if (end - start != length || (int) crc.getValue() != buffer.getInt()) {
+				throw new IOException("damaged record " + key);
+			}
+			slots.put(key, new Slot(kind, payloadOffset, payloadLength, null));
+		}
+	}
+
+	private byte[] payloadOf(Slot slot) {
+		return payloadOf(slot, mapped);
+	}
+
+	private static byte[] payloadOf(Slot slot, MappedByteBuffer source) {
+		if (slot.payload != null) {
+			return slot.payload;
+		}
+		byte[] payload = new byte[slot.length];
+		ByteBuffer buffer = source.duplicate();
+		buffer.position(slot.offset);
+		buffer.get(payload);
+		return payload;
+	}
+
+	private ByteBuffer header() {
+		byte[] version = TOOL_VERSION.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer header = ByteBuffer.allocate(16 + version.length);
+		header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(SMTExpressionParser.ENCODING_VERSION)
+			.putInt(version.length).put(version);
+		return header.flip();
+	}
+
+	private static ByteBuffer record(byte[] keyBytes, Slot slot, MappedByteBuffer source) {
+		byte[] payload = payloadOf(slot, source);
+		int length = 1 + 4 + keyBytes.length + 4 + payload.length;
+
+		ByteBuffer record = ByteBuffer.allocate(4 + length + 4);
+		record.putInt(length).put(slot.kind).putInt(keyBytes.length).put(keyBytes)
+			.putInt(payload.length).put(payload);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 4, length);
+		record.putInt((int) crc.getValue());
+		return record.flip();
+	}
+
+	private static long recordSize(String key, Slot slot) {
+		return 4 + 1 + 4 + 3L * key.length() + 4 + slot.length + 4;
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 4 + 16);
+			byte[] chunk = new byte[8192];
+			while (!deflater.finished()) {
+				result.write(chunk, 0, deflater.deflate(chunk));
+			}
+			return result.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] data) throws DataFormatException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			ByteArrayOutputStream result = new ByteArrayOutputStream(data.length * 4);
+			byte[] chunk = new byte[8192];
+			while (!inflater.finished()) {
+				int inflated = inflater.inflate(chunk);
+				if (inflated == 0 && inflater.needsInput()) {
+					throw new DataFormatException("truncated payload");
+				}
+				result.write(chunk, 0, inflated);
+			}
+			return result.toByteArray();
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * toolVersion identifies analyser writing the cache by implementation version of the build,
+	 * encoding version of formulas and hash of analyser classes
+     * @return tool version, null if analyser classes can not be read
+     */
+	private static String toolVersion() {
+		String version = PersistentAnalysisCache.class.getPackage() == null
+				? null : PersistentAnalysisCache.class.getPackage().getImplementationVersion();
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String name : ANALYSER_CLASSES) {
+				try (InputStream in = PersistentAnalysisCache.class.getResourceAsStream("/" + name + ".class")) {
+					if (in == null) {
+						return null;
+					}
+					digest.update(in.readAllBytes());
+				}
+			}
+
+			StringBuilder hash = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hash.append(String.format("%02x", b));
+			}
+			return (version == null ? "" : version) + "+" + SMTExpressionParser.ENCODING_VERSION + "+" + hash;
+		} catch (IOException | NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+}
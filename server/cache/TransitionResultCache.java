@@ -0,0 +1,287 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import org.eclipse.sprotty.SModelElement;
+
+/**
+ * TransitionResultCache class documentation.
+ *
+ * This class is a TransitionResultCache representation.
+ * It keeps results of tgen requests keyed by resource uri, content hash of the model
+ * and request arguments, so a request on unchanged document is served without 
+ * building transition graph again. Requests tell the cache which document version
+ * they read, so a slow request on an older version never replaces results of a newer one.
+ *
+ * Least recently used entries are evicted once entry count or estimated memory 
+ * exceeds limits set up with tgen.cache.entries and tgen.cache.maxBytes system properties
+ *
+ * @author Garaev Timur
+ */
+public class TransitionResultCache {
+	private static final TransitionResultCache SHARED = new TransitionResultCache(
+			Integer.getInteger("tgen.cache.entries", 256),
+			Long.getLong("tgen.cache.maxBytes", 64L * 1024 * 1024)
+		);
+	
+	private static final char SEPARATOR = '\n';
+	
+	private final int maxEntries;
+	private final long maxBytes;
+	private long usedBytes = 0;
+	
+	// Access ordered, so iteration starts from the least recently used entry
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	// Newest content of every resource seen by requests
+	private final Map<String, Content> currentContents = new HashMap<>();
+	
+	private static class Content {
+		final Integer version;
+		final String contentHash;
+		
+		Content(Integer _version, String _contentHash) {
+			version = _version;
+			contentHash = _contentHash;
+		}
+	}
+	
+	private static class Entry {
+		final Object value;
+		final long size;
+		
+		Entry(Object _value, long _size) {
+			value = _value;
+			size = _size;
+		}
+	}
+	
+	public TransitionResultCache(int _maxEntries, long _maxBytes) {
+		maxEntries = _maxEntries;
+		maxBytes = _maxBytes;
+	}
+	
+	public static TransitionResultCache shared() {
+		return SHARED;
+	}
+	
+	/**
+	 * key composes cache key of request result
+     * @param uri resource uri
+	 * @param contentHash content hash of the model and its imported type packages
+	 * @param kind request name
+	 * @param args request arguments result depends on
+     * @return cache key
+     */
+	public static String key(String uri, String contentHash, String kind, String... args) {
+		StringBuilder key = new StringBuilder()
+				.append(uri).append(SEPARATOR)
+				.append(contentHash).append(SEPARATOR)
+				.append(kind);
+		for (String arg : args) {
+			key.append(SEPARATOR).append(arg);
+		}
+		return key.toString();
+	}
+	
+	/**
+	 * track records content of a document read by a request. Newer content drops results
+	 * of previous contents, content of an older version than already seen is ignored
+     * @param uri resource uri
+	 * @param version document version, null if it is unknown
+	 * @param contentHash content hash of the model and its imported type packages
+     */
+	public synchronized void track(String uri, Integer version, String contentHash) {
+		Content known = currentContents.get(uri);
+		if (known != null && known.version != null && version != null && version < known.version) {
+			return;
+		}
+		currentContents.put(uri, new Content(version, contentHash));
+		if (known != null && !known.contentHash.equals(contentHash)) {
+			dropStale(uri, contentHash);
+			PersistentAnalysisCache persistent = PersistentAnalysisCache.active();
+			if (persistent != null) {
+				persistent.dropStale(uri, contentHash);
+			}
+		}
+	}
+	
+	/**
+	 * getIfPresent gives result kept in memory without computing it
+     * @param key cache key made by key()
+     * @return cached result, null if there is none
+     */
+	public synchronized Object getIfPresent(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		AnalysisMetrics.shared().increment(AnalysisMetrics.RESULT_CACHE_HITS);
+		return entry.value;
+	}
+	
+	/**
+	 * computeIfAbsent gives cached result or computes and stores it
+     * @param key cache key made by key()
+	 * @param compute result computation
+	 * @param sizeOf estimation of result size in bytes
+     * @return request result
+     */
+	public <T> T computeIfAbsent(String key, Supplier<T> compute, ToLongFunction<T> sizeOf) {
+		return computeIfAbsent(key, compute, sizeOf, value -> true);
+	}
+	
+	/**
+	 * computeIfAbsent gives cached result or computes it, and stores it only if it is complete
+     * @param key cache key made by key()
+	 * @param compute result computation
+	 * @param sizeOf estimation of result size in bytes
+	 * @param complete tells if result may be cached, partial results are not
+     * @return request result
+     */
+	@SuppressWarnings("unchecked")
+	public <T> T computeIfAbsent(String key, Supplier<T> compute, ToLongFunction<T> sizeOf, Predicate<T> complete) {
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				AnalysisMetrics.shared().increment(AnalysisMetrics.RESULT_CACHE_HITS);
+				return (T) entry.value;
+			}
+		}
+		
+		// Results persisted by previous run of language server
+		PersistentAnalysisCache persistent = PersistentAnalysisCache.active();
+		Object stored = persistent == null ? null : persistent.get(key);
+		if (stored != null) {
+			AnalysisMetrics.shared().increment(AnalysisMetrics.DISK_CACHE_HITS);
+			put(key, stored, sizeOf.applyAsLong((T) stored));
+			return (T) stored;
+		}
+		
+		AnalysisMetrics.shared().increment(AnalysisMetrics.RESULT_CACHE_MISSES);
+		T value = compute.get();
+		if (value != null && complete.test(value) && put(key, value, sizeOf.applyAsLong(value)) && persistent != null) {
+			persistent.put(key, value);
+		}
+		return value;
+	}
+	
+	public synchronized Object get(String key) {
+		Entry entry = entries.get(key);
+		return entry == null ? null : entry.value;
+	}
+	
+	/**
+	 * put stores result unless it was computed for content which is not the newest one
+     * @param key cache key made by key()
+	 * @param value request result
+	 * @param size estimation of result size in bytes
+     * @return false if result is stale and was not stored
+     */
+	public synchronized boolean put(String key, Object value, long size) {
+		String[] parts = key.split(String.valueOf(SEPARATOR), 3);
+		if (parts.length > 1) {
+			Content known = currentContents.get(parts[0]);
+			if (known == null) {
+				currentContents.put(parts[0], new Content(null, parts[1]));
+			} else if (!known.contentHash.equals(parts[1])) {
+				// Request on an older version finished after the document had changed
+				return false;
+			}
+		}
+		
+		Entry previous = entries.put(key, new Entry(value, size));
+		if (previous != null) {
+			usedBytes -= previous.size;
+		}
+		usedBytes += size;
+		
+		Iterator<Entry> eldest = entries.values().iterator();
+		while (eldest.hasNext() && (entries.size() > maxEntries || usedBytes > maxBytes)) {
+			usedBytes -= eldest.next().size;
+			eldest.remove();
+		}
+		return true;
+	}
+	
+	public synchronized void clear() {
+		entries.clear();
+		currentContents.clear();
+		usedBytes = 0;
+	}
+	
+	/**
+	 * dropStale removes results computed for previous content of resource
+     * @param uri resource uri
+	 * @param contentHash current content hash of resource
+     */
+	private void dropStale(String uri, String contentHash) {
+		String prefix = uri + SEPARATOR;
+		String current = prefix + contentHash + SEPARATOR;
+		List<String> stale = new ArrayList<>();
+		for (String key : entries.keySet()) {
+			if (key.startsWith(prefix) && !key.startsWith(current)) {
+				stale.add(key);
+			}
+		}
+		for (String key : stale) {
+			usedBytes -= entries.remove(key).size;
+		}
+	}
+	
+	public static long sizeOf(String value) {
+		return 64 + 2L * value.length();
+	}
+	
+	/**
+	 * sizeOf roughly estimates memory taken by generated diagram
+     * @param response diagram response
+     * @return estimated size in bytes
+     */
+	public static long sizeOf(SModelResponse response) {
+		long size = 64 + (response.getRoot() instanceof SModelElement 
+				? sizeOf((SModelElement) response.getRoot()) : sizeOf(String.valueOf(response.getRoot())));
+		if (response.getData() != null) {
+			size += sizeOf(response.getData());
+		}
+		if (response.getStrings() != null) {
+			for (String string : response.getStrings()) {
+				size += 8 + sizeOf(string);
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * sizeOf roughly estimates memory taken by condition texts of diagram edges
+     * @param labels condition texts keyed by label identifier
+     * @return estimated size in bytes
+     */
+	public static long sizeOf(Map<String, String> labels) {
+		long size = 64;
+		for (Map.Entry<String, String> label : labels.entrySet()) {
+			size += 32 + sizeOf(label.getKey()) + sizeOf(label.getValue());
+		}
+		return size;
+	}
+	
+	private static long sizeOf(SModelElement element) {
+		if (element == null) {
+			return 0;
+		}
+		
+		// Element object, its id, type and bounds
+		long size = 256;
+		if (element.getChildren() != null) {
+			for (SModelElement child : element.getChildren()) {
+				size += sizeOf(child);
+			}
+		}
+		return size;
+	}
+}
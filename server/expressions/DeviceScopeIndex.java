@@ -0,0 +1,40 @@
+/**
+ * DeviceScopeIndex class documentation.
+ *
+ * This class is a DeviceScopeIndex representation.
+ * It answers whether attribute of a type exists in the scope of device setup. 
+ * Every (type, attribute) pair is looked up in the device tree once, 
+ * so transition and event condition checks of one request share tree walks
+ *
+ * IDebugDeviceNode -- Device tree implementation. Explains 
+ * how devices are located relative to each other
+ *
+ * @author Garaev Timur
+ */
+public class DeviceScopeIndex {
+	private final IDebugDeviceNode root;
+	private final HashMap<String, Boolean> available = new HashMap<>();
+	
+	public DeviceScopeIndex(IDebugDeviceNode _root) {
+		root = _root;
+	}
+	
+	/**
+	 * contains checks that given attribute of its type exists in current device setup 
+     * @param attr attribute reference with its type
+     * @return true if attribute exists in device setup
+     */
+	public boolean contains(DevAttrW attr) {
+		String type = attr.getDevT().getName();
+		return available.computeIfAbsent(type + ":" + attr.getAttr().getName(), key -> lookup(type, attr));
+	}
+	
+	private boolean lookup(String type, DevAttrW attr) {
+		for (IDebugDeviceNode node : root.findChildrenByParentAndAttr(type, attr)) {
+			if (node.findAllNodesByAttrScope(type, attr).size() > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -16,44 +16,31 @@ public class EventExpressionChecker {
      * @return true if event expression exists in current device setup
      */
 	public Boolean parse(Expression expr, IDebugDeviceNode root) {
+		return parse(expr, new DeviceScopeIndex(root));
+	}
+	
+	/**
+	 * parse validates that given expression makes sense in fixed setup 
+     * @param expr when expression we want to check
+	 * @param scope attribute index of current device's tree
+     * @return true if event expression exists in current device setup
+     */
+	public Boolean parse(Expression expr, DeviceScopeIndex scope) {
 		Boolean result = true;
 		if (expr instanceof VariableImpl) {
-			result = parse((VariableImpl)expr, root);
+			result = scope.contains(((VariableImpl)expr).getValue());
 		} else if (expr instanceof NotImpl) {
-			result = parse(((NotImpl)expr).getExpression(), root);
+			result = parse(((NotImpl)expr).getExpression(), scope);
 		} else if (expr instanceof AndImpl) {
-			result = parse(((AndImpl)expr).getLeft(), root) && parse(((AndImpl)expr).getRight(), root);
+			result = parse(((AndImpl)expr).getLeft(), scope) && parse(((AndImpl)expr).getRight(), scope);
 		} else if (expr instanceof OrImpl) {
-			result = parse(((OrImpl)expr).getLeft(), root) && parse(((OrImpl)expr).getRight(), root);
+			result = parse(((OrImpl)expr).getLeft(), scope) && parse(((OrImpl)expr).getRight(), scope);
 		} else if (expr instanceof ComparisonImpl) {
-			result = parse(((ComparisonImpl)expr).getLeft(), root) && parse(((ComparisonImpl)expr).getRight(), root);
+			result = parse(((ComparisonImpl)expr).getLeft(), scope) && parse(((ComparisonImpl)expr).getRight(), scope);
 		} else if (expr instanceof EqualityImpl) {
-			result = parse(((EqualityImpl)expr).getLeft(), root) && parse(((EqualityImpl)expr).getRight(), root);
+			result = parse(((EqualityImpl)expr).getLeft(), scope) && parse(((EqualityImpl)expr).getRight(), scope);
 		}
 		
 		return result;
 	}
-	
-	/**
-	 * parse validates that given attribute usage makes sense in fixed setup 
-     * @param expr variable we want to check
-	 * @param root root of current device's tree
-     * @return true if event variable exists in current device setup
-     */
-	private Boolean parse(VariableImpl expr, IDebugDeviceNode root) {
-		List<IDebugDeviceNode> nodes = root.findChildrenByParentAndAttr(
-				expr.getValue().getDevT().getName(),
-				expr.getValue()
-			);
-		
-		for (IDebugDeviceNode node : nodes) {
-			if (node.findAllNodesByAttrScope(
-					expr.getValue().getDevT().getName(),
-					expr.getValue()
-				).size() > 0) {
-					return true;
-				}
-		}
-		return false;
-	}
 }
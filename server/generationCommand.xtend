@@ -12,87 +12,405 @@ class TransitionModelCommands implements ILanguageServerExtension {
 	protected extension ILanguageServerAccess access
 	Map<String, String> states = newHashMap();
 	List<DeviceTypeNode> treeList = newArrayList()
+	// Last laid out diagram of recently used documents, used for incremental updates
+	DiagramLayoutStore layouts = new DiagramLayoutStore()
 	@Inject ITraceProvider traceProvider
 
 	override void initialize(ILanguageServerAccess access) {
 		this.access = access;
+		openAnalysisCache()
+		access.addBuildListener [ deltas |
+			// Layouts of removed documents are never updated again
+			deltas.filter[ getNew === null ].forEach[ layouts.remove(getUri.toString) ]
+		]
+	}
+
+	/**
+	 * openAnalysisCache sets up results persisted between sessions, stored in tgen.cache.dir
+	 * or in .tgen directory of workspace root. Analysis works without it if directory is unknown
+	 */
+	def private void openAnalysisCache() {
+		try {
+			val configured = System.getProperty("tgen.cache.dir")
+			val rootUri = access.initializeParams?.rootUri
+			if (configured !== null) {
+				PersistentAnalysisCache.open(Paths.get(configured))
+			} else if (rootUri !== null) {
+				PersistentAnalysisCache.open(Paths.get(URI.create(rootUri)).resolve(".tgen"))
+			}
+		} catch (Exception e) {
+			System.err.println("Analysis cache is disabled: " + e.message)
+		}
 	}
     
+	/**
+	 * analyse runs body of request under read lock of the document. Body takes snapshot
+	 * and submits computation to AnalysisExecutor, so the lock is released before computation runs
+	 */
+	def private <T> CompletableFuture<T> analyse(String request, String uri,
+		(ILanguageServerAccess.Context)=>CompletableFuture<T> body) {
+		val timer = AnalysisMetrics.shared.start("request." + request)
+		val result = AnalysisExecutor.await(this.access.doRead(uri) [ context | body.apply(context) ])
+		result.whenComplete[ value, error | timer.close ]
+		return result
+	}
+
+	/**
+	 * resultKey composes cache key of request result and tells result cache which version
+	 * of the document request reads, so results of older versions finishing late are not stored
+	 */
+	def private String resultKey(ILanguageServerAccess.Context context, String contentHash, String kind,
+		String... args) {
+		val uri = context.resource.URI.toString
+		TransitionResultCache.shared.track(uri, context.document?.version, contentHash)
+		return TransitionResultCache.key(uri, contentHash, kind, args)
+	}
+
 	@JsonRequest
 	def CompletableFuture<String> check_transitions(Map<String, String> data) {
-		return this.access.doRead(data.get("uri")) [ context |
+		return analyse("check_transitions", data.get("uri")) [ context |
 			val obj = context?.resource?.contents?.head
 			if (obj instanceof BdmPackage) {
+				SMTFormulaCache.track(context.resource.URI.toString, context.document?.version)
 				val generator = new BdmTransitionGenerator(traceProvider)
+				val key = resultKey(
+					context,
+					generator.contentHash(List.of(obj)),
+					"check_transitions",
+					data.get("start")
+				)
 
-				val treeList = generator.generateTransitionGraphFromBdm(List.of(obj), null)
-				val stateMachine = new TransitionStateMachine(treeList)
-				val start = data.get("start")
-				val attribute = start.substring(start.indexOf('.') + 1, start.length)
-				val searchStart = generator.updateType(
-					treeList,
-					start.substring(0, start.indexOf('.')),
-					attribute
-				) + ":" + attribute
-
-				if (stateMachine.cycleSearch(searchStart) == false) {
-					return stateMachine.proceedSat(searchStart);
-				}
+				return AnalysisExecutor.shared.submit(
+					key,
+					[
+						val snapshot = ModelSnapshot.forSearch(generator, obj)
+						return snapshot -> searchStart(generator, snapshot, data.get("start"))
+					],
+					[ snapshot, cancelled |
+						TransitionResultCache.shared.computeIfAbsent(
+							key,
+							[ checkTransitions(snapshot.key, data.get("start"), snapshot.value, new SolverBudget(cancelled)) ],
+							[ TransitionResultCache.sizeOf(it) ],
+							[ !startsWith(TransitionStateMachine.UNKNOWN_HEADER) ]
+						)
+					]
+				)
+			} else {
+				return CompletableFuture.completedFuture("Not a BDM package")
+			}
+		]
+	}
+
+	/**
+	 * searchStart resolves "type.attr" start of search to id of attribute in transition graph
+	 * @return attribute id in "type:attr" format, null if no type of the chain declares attribute
+	 */
+	def private String searchStart(BdmTransitionGenerator generator, ModelSnapshot snapshot, String start) {
+		if (start === null || start.indexOf('.') < 0) {
+			return null
+		}
+		val attribute = start.substring(start.indexOf('.') + 1, start.length)
+		val type = generator.updateType(
+			snapshot.treeList,
+			start.substring(0, start.indexOf('.')),
+			attribute
+		)
+		return if (type === null) null else type + ":" + attribute
+	}
+
+	def private String checkTransitions(ModelSnapshot snapshot, String start, String searchStart, SolverBudget budget) {
+		if (searchStart === null || !snapshot.graph.contains(searchStart)) {
+			return "No such attribute: " + start
+		}
 
-				return "Cycle found, bad model"
+		try (val stateMachine = new TransitionStateMachine(snapshot.graph, budget)) {
+			if (stateMachine.cycleSearch(searchStart) == false) {
+				return stateMachine.proceedSat(searchStart);
+			}
+		}
+
+		return "Cycle found, bad model"
+	}
+
+	@JsonRequest
+	def CompletableFuture<ReachabilityReport> check_all_transitions(Map<String, String> data) {
+		return analyse("check_all_transitions", data.get("uri")) [ context |
+			val obj = context?.resource?.contents?.head
+			if (obj instanceof BdmPackage) {
+				SMTFormulaCache.track(context.resource.URI.toString, context.document?.version)
+				val generator = new BdmTransitionGenerator(traceProvider)
+				val key = resultKey(
+					context,
+					generator.contentHash(List.of(obj)),
+					"check_all_transitions"
+				)
+
+				return AnalysisExecutor.shared.submit(
+					key,
+					[ ModelSnapshot.forSearch(generator, obj) ],
+					[ snapshot, cancelled |
+						TransitionResultCache.shared.computeIfAbsent(
+							key,
+							[ ReachabilityReport.of(snapshot.graph, SolverBudget.forFullCheck(cancelled)) ],
+							[ estimateSize ],
+							[ complete ]
+						)
+					]
+				)
 			} else {
-				return "Not a BDM package"
+				return CompletableFuture.completedFuture(ReachabilityReport.notAnalysed("not a BDM package"))
 			}
 		]
 	}
 
 	@JsonRequest
 	def CompletableFuture<SModelResponse> dbg_feature(String uri) {
-		return this.access.doRead(uri) [ context |
+		return analyse("dbg_feature", uri) [ context |
 			val pack = context?.resource?.contents?.head
 			if (pack instanceof BdmPackage) {
-				val treeList = new BdmTransitionGenerator(traceProvider).
-					generateTransitionGraphFromBdm(List.of(pack), null)
-				val generator = new TransitionDiagramGenerator()
-				return generator.generate(
-					pack.name,
-					treeList,
-					"transitionDiaram",
-					generator.parseLayoutDefaults(emptyMap)
+				val transitionGenerator = new BdmTransitionGenerator(traceProvider)
+				val key = resultKey(
+					context,
+					transitionGenerator.contentHash(List.of(pack)),
+					"dbg_feature"
+				)
+
+				return AnalysisExecutor.shared.submit(
+					key,
+					[ ModelSnapshot.forLayout(transitionGenerator, pack) ],
+					[ snapshot, cancelled |
+						TransitionResultCache.shared.computeIfAbsent(key, [
+							val generator = new TransitionDiagramGenerator([ snapshot.formulaText(it) ])
+							return generator.generate(
+								snapshot.packName,
+								snapshot.treeList,
+								"transitionDiaram",
+								generator.parseLayoutDefaults(emptyMap)
+							)
+						], [ TransitionResultCache.sizeOf(it) ])
+					]
 				)
 			} else {
-				return new SModelResponse(
+				return CompletableFuture.completedFuture(new SModelResponse(
 					false,
 					"There no any BDM packages in this resource set",
 					new SModelRoot(),
 					new HashMap<String, String>()
+				))
+			}
+		]
+	}
+
+	/**
+	 * edge_condition sends condition text of one transition edge label.
+	 * Diagram is sent without these texts, client asks for them when label is hovered
+	 */
+	@JsonRequest
+	def CompletableFuture<String> edge_condition(Map<String, String> data) {
+		return analyse("edge_condition", data.get("uri")) [ context |
+			val pack = context?.resource?.contents?.head
+			if (pack instanceof BdmPackage) {
+				val transitionGenerator = new BdmTransitionGenerator(traceProvider)
+				val key = resultKey(
+					context,
+					transitionGenerator.contentHash(List.of(pack)),
+					"edge_conditions"
 				)
+
+				val HashMap<String, String> empty = newHashMap
+				return AnalysisExecutor.shared.submit(
+					key,
+					[ ModelSnapshot.forLayout(transitionGenerator, pack) ],
+					[ snapshot, cancelled |
+						TransitionResultCache.shared.computeIfAbsent(key, [
+							return new TransitionDiagramGenerator([ snapshot.formulaText(it) ]).collectConditions(snapshot.packName, snapshot.treeList)
+						], [ TransitionResultCache.sizeOf(it) ])
+					]
+				).thenApply[ (it ?: empty).getOrDefault(data.get("label"), "") ]
+			} else {
+				return CompletableFuture.completedFuture("There no any BDM packages in this resource set")
 			}
 		]
 	}
 
+	/**
+	 * dbg_feature_update lays out diagram of the document reusing its previous layout.
+	 * If client has the previous revision of diagram, only changes are sent back
+	 */
 	@JsonRequest
-	def CompletableFuture<String> check_event_condition(Map<String, String> data) {
-		return this.access.doRead(data.get("uri")) [ context |
+	def CompletableFuture<SModelDiffResponse> dbg_feature_update(Map<String, String> data) {
+		return analyse("dbg_feature_update", data.get("uri")) [ context |
 			val pack = context?.resource?.contents?.head
 			if (pack instanceof BdmPackage) {
-				var res = new ArrayList<String>();
-				for (event : pack.events) {
-					val parser = new SMTExpressionParser(new SMTManager());
-					val constraint = parser.parseSMT(event.when.condition)
-
-					try (val prover = parser.formulaManager.context.newProverEnvironment(ProverOptions.GENERATE_MODELS)) {
-						prover.addConstraint(constraint);
-						if (prover.isUnsat()) {
-							res.add(event.name)
+				val uri = context.resource.URI.toString
+				val transitionGenerator = new BdmTransitionGenerator(traceProvider)
+				val contentHash = transitionGenerator.contentHash(List.of(pack))
+				val previous = layouts.get(uri)
+				val clientHasPrevious = previous !== null && String.valueOf(previous.revision) == data.get("revision")
+
+				if (clientHasPrevious && previous.contentHash == contentHash) {
+					return CompletableFuture.completedFuture(new SModelDiffResponse(true, "Diagram is up to date",
+						previous.revision, null, new SModelDiff(), new HashMap<String, String>()))
+				}
+
+				// Never cached, key only joins requests for the same content and client revision
+				val key = TransitionResultCache.key(uri, contentHash, "dbg_feature_update", data.get("revision"))
+				return AnalysisExecutor.shared.submit(
+					key,
+					[ ModelSnapshot.forLayout(transitionGenerator, pack) ],
+					[ snapshot, cancelled |
+						val generator = new TransitionDiagramGenerator([ snapshot.formulaText(it) ])
+						val layout = generator.generateLayout(snapshot.packName, snapshot.treeList,
+							generator.parseLayoutDefaults(emptyMap), previous)
+						// Revision is assigned atomically, concurrent updates never share one
+						layouts.install(uri, layout, contentHash)
+
+						if (clientHasPrevious) {
+							val diff = SModelDiff.compute(previous.graph, layout.graph)
+							return new SModelDiffResponse(true, "Diagram updated", layout.revision, null,
+								diff, diff.labelData(layout.labelData))
 						}
-					} catch (Exception e) {
-						e.message
-					}
+						return new SModelDiffResponse(true, "Diagram opened", layout.revision, layout.graph,
+							null, layout.labelData)
+					]
+				)
+			} else {
+				return CompletableFuture.completedFuture(new SModelDiffResponse(false,
+					"There no any BDM packages in this resource set", 0, new SModelRoot(), null,
+					new HashMap<String, String>()))
+			}
+		]
+	}
+
+	/**
+	 * dbg_feature_collapsed sends diagram with collapsed type nodes only.
+	 * Attributes and transitions of a type are loaded by expand_type when client opens it
+	 */
+	@JsonRequest
+	def CompletableFuture<SModelResponse> dbg_feature_collapsed(String uri) {
+		return analyse("dbg_feature_collapsed", uri) [ context |
+			val pack = context?.resource?.contents?.head
+			if (pack instanceof BdmPackage) {
+				val transitionGenerator = new BdmTransitionGenerator(traceProvider)
+				val key = resultKey(
+					context,
+					transitionGenerator.contentHash(List.of(pack)),
+					"dbg_feature_collapsed"
+				)
+
+				return AnalysisExecutor.shared.submit(
+					key,
+					[ ModelSnapshot.forLayout(transitionGenerator, pack) ],
+					[ snapshot, cancelled |
+						TransitionResultCache.shared.computeIfAbsent(key, [
+							val generator = new TransitionDiagramGenerator([ snapshot.formulaText(it) ])
+							return generator.generateCollapsed(snapshot.packName, snapshot.treeList,
+								generator.parseLayoutDefaults(emptyMap))
+						], [ TransitionResultCache.sizeOf(it) ])
+					]
+				)
+			} else {
+				return CompletableFuture.completedFuture(new SModelResponse(
+					false,
+					"There no any BDM packages in this resource set",
+					new SModelRoot(),
+					new HashMap<String, String>()
+				))
+			}
+		]
+	}
+
+	/**
+	 * expand_type sends collapsed diagram laid out again with one more type expanded.
+	 * "expanded" is comma separated list of types already expanded on client side
+	 */
+	@JsonRequest
+	def CompletableFuture<SModelResponse> expand_type(Map<String, String> data) {
+		return analyse("expand_type", data.get("uri")) [ context |
+			val pack = context?.resource?.contents?.head
+			if (data.get("type").nullOrEmpty) {
+				return CompletableFuture.completedFuture(new SModelResponse(
+					false,
+					"No type to expand",
+					new SModelRoot(),
+					new HashMap<String, String>()
+				))
+			} else if (pack instanceof BdmPackage) {
+				val transitionGenerator = new BdmTransitionGenerator(traceProvider)
+				val expanded = new TreeSet<String>()
+				if (!data.getOrDefault("expanded", "").empty) {
+					expanded.addAll(data.get("expanded").split(","))
 				}
-				return "Unsatisfiable event names:\n" + String.join(",\n", res)
+				expanded.add(data.get("type"))
+				val key = resultKey(
+					context,
+					transitionGenerator.contentHash(List.of(pack)),
+					"expand_type",
+					data.get("type"),
+					String.join(",", expanded)
+				)
+
+				return AnalysisExecutor.shared.submit(
+					key,
+					[ ModelSnapshot.forLayout(transitionGenerator, pack) ],
+					[ snapshot, cancelled |
+						TransitionResultCache.shared.computeIfAbsent(key, [
+							val generator = new TransitionDiagramGenerator([ snapshot.formulaText(it) ])
+							return generator.generateExpandedType(snapshot.packName, snapshot.treeList, data.get("type"),
+								expanded, generator.parseLayoutDefaults(emptyMap))
+						], [ TransitionResultCache.sizeOf(it) ])
+					]
+				)
+			} else {
+				return CompletableFuture.completedFuture(new SModelResponse(
+					false,
+					"There no any BDM packages in this resource set",
+					new SModelRoot(),
+					new HashMap<String, String>()
+				))
+			}
+		]
+	}
+
+	/**
+	 * stats sends timings of analysis phases and requests, solver call and cache counters 
+	 * collected since start of the server
+	 */
+	@JsonRequest
+	def CompletableFuture<AnalysisStats> stats() {
+		return CompletableFuture.completedFuture(AnalysisMetrics.shared.snapshot)
+	}
+
+	@JsonRequest
+	def CompletableFuture<String> check_event_condition(Map<String, String> data) {
+		return analyse("check_event_condition", data.get("uri")) [ context |
+			val pack = context?.resource?.contents?.head
+			if (pack instanceof BdmPackage) {
+				SMTFormulaCache.track(context.resource.URI.toString, context.document?.version)
+				val parallelism = EventConditionBatchChecker.parseParallelism(data.get("parallelism"))
+				// Never cached, key only joins requests for the same content
+				val key = resultKey(
+					context,
+					new BdmTransitionGenerator(traceProvider).contentHash(List.of(pack)),
+					"check_event_condition",
+					String.valueOf(parallelism)
+				)
+
+				return AnalysisExecutor.shared.submit(
+					key,
+					[ ModelSnapshot.copyEvents(pack.events) ],
+					[ events, cancelled |
+						val checker = new EventConditionBatchChecker(parallelism)
+						val res = checker.findUnsatisfiable(events, new SolverBudget(cancelled))
+						if (!checker.unknown.empty) {
+							return "Unsatisfiable event names:\n" + String.join(",\n", res)
+								+ "\nUnknown event names (solver budget exhausted):\n" + String.join(",\n", checker.unknown)
+						}
+						return "Unsatisfiable event names:\n" + String.join(",\n", res)
+					]
+				)
 			} else {
-				return "There no any BDM packages in this resource set"
+				return CompletableFuture.completedFuture("There no any BDM packages in this resource set")
 			}
 		]
 	}
@@ -14,24 +14,23 @@ class BdmTransitionGenerator {
 	
 	ITraceProvider traceProvider
 	
+	// Lookup indexes of the last inheritance tree passed to generator
+	List<DeviceTypeNode> indexedTree
+	Map<String, DeviceTypeNode> typesById
+	Map<String, Set<String>> attributesById
+	Map<String, String> resolvedTypes
+	
 	new (ITraceProvider _traceProvider) {
 		traceProvider = _traceProvider
 	}
 	
 	def generateTransitionGraphFromBdm(List<BdmPackage> packs, DeviceDebugPackage ddm) {
+		return AnalysisMetrics.shared.timed("graph", [ buildTransitionGraph(packs, ddm) ])
+	}
+	
+	def private buildTransitionGraph(List<BdmPackage> packs, DeviceDebugPackage ddm) {
 		// Get all types and generate IDM tree
-		val Set<EObject> data = newHashSet()
-		val typePacks = new ArrayList()
-		
-		for (obj : packs) {
-			typePacks.addAll(
-						collectAllPackagesContent(
-						    TypePackage,
-						    obj.eResource.resourceSet,
-						    scopedPackNames(obj as BdmPackage)
-						))
-			collectAllPackagesTree(TypePackage, obj.eResource.resourceSet, typePacks, data)
-		}
+		val data = collectTypeData(packs)
 
         val devTypesTree = data.filter(DeviceType)	
         
@@ -52,6 +51,48 @@ class BdmTransitionGenerator {
         return addTransitions(treeList, eventList, new EnvironmentProcessor(ddm).buildDebugTree()) 
 	}
 	
+	/**
+	 * collectTypeData collects content of all type packages used by given packages
+	 *
+     * @param packs behavior model packages
+	 * @return objects of used type packages
+     */
+	def collectTypeData(List<BdmPackage> packs) {
+		val Set<EObject> data = newHashSet()
+		val typePacks = new ArrayList()
+		
+		for (obj : packs) {
+			typePacks.addAll(
+						collectAllPackagesContent(
+						    TypePackage,
+						    obj.eResource.resourceSet,
+						    scopedPackNames(obj as BdmPackage)
+						))
+			collectAllPackagesTree(TypePackage, obj.eResource.resourceSet, typePacks, data)
+		}
+		return data
+	}
+	
+	/**
+	 * contentHash computes content hash of given packages and type packages they use,
+	 * transition graph built from them changes only together with the hash
+	 *
+     * @param packs behavior model packages
+	 * @return hex encoded content hash
+     */
+	def contentHash(List<BdmPackage> packs) {
+		val Set<Resource> resources = newHashSet()
+		for (obj : packs) {
+			resources.add(obj.eResource)
+		}
+		for (obj : collectTypeData(packs)) {
+			if (obj.eResource !== null) {
+				resources.add(obj.eResource)
+			}
+		}
+		return ModelContentHash.of(resources)
+	}
+	
 	/**
 	 * addTransitions fills inheritance tree with additional transitions based 
 	 * on used-defined events and device setup
@@ -62,12 +103,21 @@ class BdmTransitionGenerator {
 	 * @return graph containing used-defined transitions
      */
 	def addTransitions(List<DeviceTypeNode> treeList, List<Event> eventList, IDebugDeviceNode root) {
+		val Map<String, List<Event>> eventsByAttr = newHashMap()
+		for (event : eventList) {
+			eventsByAttr.computeIfAbsent(
+				event.getAttrRef().devT.name + ":" + event.getAttrRef().attr.name,
+				[ newArrayList ]
+			).add(event)
+		}
+		val scope = if (root === null) null else new DeviceScopeIndex(root)
+		
 		for (node_index : 0..< treeList.size) {
 			for (attr_index :0..< treeList.get(node_index).attributes.size) {
-				val linkedEvents = eventList.filter [ event | 
-					event.getAttrRef().attr.name == treeList.get(node_index).getAttrName(attr_index)
-						&& event.getAttrRef().devT.name == treeList.get(node_index).id
-				]
+				val linkedEvents = eventsByAttr.getOrDefault(
+					treeList.get(node_index).id + ":" + treeList.get(node_index).getAttrName(attr_index),
+					emptyList
+				)
 				
 				linkedEvents.forEach [ event |
 					event.actions.forEach[ action | 
@@ -84,10 +134,8 @@ class BdmTransitionGenerator {
 							val toAttr = targetAttr.attr.name
 							
 							if (!toType.isEmpty && !toAttr.isEmpty 
-								&& (root === null || 
-									(isTransitionAvailable(toType, targetAttr, root.findChildrenByParentAndAttr(toType, targetAttr)) 
-										&& checkEvent(event.when.condition, root)
-									)
+								&& (scope === null || 
+									(scope.contains(targetAttr) && checkEvent(event.when.condition, scope))
 								)
 							) {
 								toType = updateType(treeList, toType, toAttr)
@@ -134,25 +182,67 @@ class BdmTransitionGenerator {
 		return new EventExpressionChecker().parse(condition, root);
 	}
 	
+	/**
+	 * checkEvent checks if given event available in given device setup
+	 *
+     * @param condition event condition data
+	 * @param scope attribute index of device setup
+	 * @return true if evant is correct available
+     */
+	def checkEvent(Expression condition, DeviceScopeIndex scope) {
+		return new EventExpressionChecker().parse(condition, scope);
+	}
+	
+	/**
+	 * updateType finds the closest type in inheritance chain of given type 
+	 * declaring given attribute, resolved types are memoized per tree
+	 *
+     * @param treeList list of nodes in inheritance tree
+	 * @param toType type attribute is used with
+	 * @param toAttr attribute name
+	 * @return type declaring attribute
+     */
 	def updateType(List<DeviceTypeNode> treeList, String toType, String toAttr) {
-		var result = toType
-		while (!hasAttribute(treeList, result, toAttr)) {
-			result = getParent(treeList, result);
-		}
-		return result
+		indexTypes(treeList)
+		return resolvedTypes.computeIfAbsent(toType + ":" + toAttr) [
+			var result = toType
+			while (result !== null && !hasAttribute(treeList, result, toAttr)) {
+				result = getParent(treeList, result);
+			}
+			return result
+		]
 	}
 	
 	def getParent(List<DeviceTypeNode> treeList, String type) {
-		treeList.filter[ node  |
-			node.getId() == type
-		].head.getParent()
+		indexTypes(treeList)
+		return typesById.get(type)?.getParent()
 	}
 	
 	def hasAttribute(List<DeviceTypeNode> treeList, String type, String attr) {
-		treeList.filter[ node  |
-			node.getId() == type
-		].head.attributes.filter[ attribute |
-			attribute.name == attr
-		].size > 0
+		indexTypes(treeList)
+		val attributes = attributesById.get(type)
+		return attributes !== null && attributes.contains(attr)
+	}
+	
+	/**
+	 * indexTypes builds type lookup indexes of given inheritance tree once
+	 *
+     * @param treeList list of nodes in inheritance tree
+     */
+	def private indexTypes(List<DeviceTypeNode> treeList) {
+		if (indexedTree === treeList) {
+			return
+		}
+		
+		indexedTree = treeList
+		typesById = newHashMap()
+		attributesById = newHashMap()
+		resolvedTypes = newHashMap()
+		for (node : treeList) {
+			if (!typesById.containsKey(node.getId())) {
+				typesById.put(node.getId(), node)
+				attributesById.put(node.getId(), node.attributes.map[ attribute | attribute.name ].toSet)
+			}
+		}
 	}
 }
\ No newline at end of file
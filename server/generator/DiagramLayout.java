@@ -0,0 +1,85 @@
+/**
+ * DiagramLayout class documentation.
+ *
+ * This class is a DiagramLayout representation.
+ * It keeps laid out diagram of a document together with ELK graphs it was computed from
+ * and structural signatures of type nodes, so the next layout of the same document can 
+ * reuse internal layout of type nodes that did not change
+ *
+ * @author Garaev Timur
+ */
+public class DiagramLayout {
+	final SGraph graph;
+	final List<ElkNode> elkGraphs;
+	final Map<String, String> signatures;
+	final HashMap<String, String> labelData;
+	
+	int revision;
+	String contentHash;
+	private ElkGraphIndex elkIndex;
+	
+	DiagramLayout(SGraph _graph, List<ElkNode> _elkGraphs, Map<String, String> _signatures, HashMap<String, String> _labelData) {
+		graph = _graph;
+		elkGraphs = _elkGraphs;
+		signatures = _signatures;
+		labelData = _labelData;
+	}
+	
+	synchronized ElkGraphIndex elkIndex() {
+		if (elkIndex == null) {
+			elkIndex = new ElkGraphIndex(elkGraphs);
+		}
+		return elkIndex;
+	}
+	
+	public SGraph getGraph() {
+		return graph;
+	}
+	
+	public HashMap<String, String> getLabelData() {
+		return labelData;
+	}
+	
+	public int getRevision() {
+		return revision;
+	}
+	
+	public void setRevision(int _revision) {
+		revision = _revision;
+	}
+	
+	public String getContentHash() {
+		return contentHash;
+	}
+	
+	public void setContentHash(String _contentHash) {
+		contentHash = _contentHash;
+	}
+	
+	/**
+	 * signature describes structure of not laid out element: identifiers, types, 
+	 * label texts and children. Elements with equal signatures get equal internal layout
+     * @param element Sprotty element
+     * @return element signature
+     */
+	static String signature(SModelElement element) {
+		StringBuilder result = new StringBuilder();
+		appendSignature(element, result);
+		return result.toString();
+	}
+	
+	private static void appendSignature(SModelElement element, StringBuilder result) {
+		result.append(element.getId()).append('|').append(element.getType());
+		if (element instanceof SLabel) {
+			result.append('|').append(((SLabel) element).getText());
+		}
+		if (element.getChildren() != null) {
+			result.append('[');
+			for (SModelElement child : element.getChildren()) {
+				appendSignature(child, result);
+				result.append(',');
+			}
+			result.append(']');
+		}
+	}
+}
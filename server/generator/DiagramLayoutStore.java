@@ -0,0 +1,57 @@
+/**
+ * DiagramLayoutStore class documentation.
+ *
+ * This class is a DiagramLayoutStore representation.
+ * It keeps the last laid out diagram of recently used documents for incremental updates.
+ * Revision is assigned while layout is installed and is never reused, so concurrent updates
+ * of one document never give two different layouts the same revision.
+ *
+ * Least recently used documents are evicted once there are more than tgen.layout.documents
+ * of them, layouts of removed documents are dropped at once
+ *
+ * @author Garaev Timur
+ */
+public class DiagramLayoutStore {
+	private static final int MAX_DOCUMENTS = Integer.getInteger("tgen.layout.documents", 16);
+
+	private final int maxDocuments;
+	// Access ordered, so iteration starts from the least recently used document
+	private final LinkedHashMap<String, DiagramLayout> layouts = new LinkedHashMap<>(16, 0.75f, true);
+	private int lastRevision = 0;
+
+	public DiagramLayoutStore() {
+		this(MAX_DOCUMENTS);
+	}
+
+	public DiagramLayoutStore(int _maxDocuments) {
+		maxDocuments = Math.max(1, _maxDocuments);
+	}
+
+	public synchronized DiagramLayout get(String uri) {
+		return layouts.get(uri);
+	}
+
+	/**
+	 * install makes given layout the current one of document and assigns its revision
+     * @param uri document uri
+	 * @param layout new layout of document
+	 * @param contentHash content hash of the model layout was computed from
+     * @return revision assigned to layout
+     */
+	public synchronized int install(String uri, DiagramLayout layout, String contentHash) {
+		layout.revision = ++lastRevision;
+		layout.contentHash = contentHash;
+		layouts.put(uri, layout);
+
+		Iterator<String> eldest = layouts.keySet().iterator();
+		while (layouts.size() > maxDocuments && eldest.hasNext()) {
+			eldest.next();
+			eldest.remove();
+		}
+		return layout.revision;
+	}
+
+	public synchronized void remove(String uri) {
+		layouts.remove(uri);
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ * ElkGraphIndex class documentation.
+ *
+ * This class is a ElkGraphIndex representation.
+ * It maps identifiers of laid out ELK nodes, labels and edges to elements themselves, 
+ * so Sprotty counterparts are found without scanning ELK children lists
+ *
+ * ElkNode -- part of Eclipse Layout Kernel (https://www.eclipse.org/elk/) framework needed to compose 
+ * and layout graph we gonna send to client side
+ *
+ * @author Garaev Timur
+ */
+public class ElkGraphIndex {
+	final HashMap<String, ElkNode> nodes = new HashMap<>();
+	final HashMap<String, ElkLabel> labels = new HashMap<>();
+	final HashMap<String, ElkEdge> edges = new HashMap<>();
+	
+	public ElkGraphIndex(ElkNode root) {
+		this(List.of(root));
+	}
+	
+	/**
+	 * ElkGraphIndex indexes all elements of given graphs in one traversal
+     * @param roots roots of ELK graphs
+     */
+	public ElkGraphIndex(Collection<ElkNode> roots) {
+		ArrayDeque<ElkNode> stack = new ArrayDeque<>(roots);
+		
+		while (!stack.isEmpty()) {
+			ElkNode node = stack.pop();
+			put(nodes, node.getIdentifier(), node);
+			for (ElkLabel label : node.getLabels()) {
+				put(labels, label.getIdentifier(), label);
+			}
+			for (ElkEdge edge : node.getContainedEdges()) {
+				put(edges, edge.getIdentifier(), edge);
+				for (ElkLabel label : edge.getLabels()) {
+					put(labels, label.getIdentifier(), label);
+				}
+			}
+			for (ElkNode child : node.getChildren()) {
+				stack.push(child);
+			}
+		}
+	}
+	
+	private static <T> void put(HashMap<String, T> map, String id, T element) {
+		if (id != null) {
+			map.putIfAbsent(id, element);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * SModelDiff class documentation.
+ *
+ * This class is a SModelDiff representation.
+ * It describes changes between two laid out versions of a diagram on the level of 
+ * root children: removed elements, elements that only changed position 
+ * and elements that have to be replaced
+ *
+ * @author Garaev Timur
+ */
+public class SModelDiff {
+	List<String> removed = new ArrayList<>();
+	List<SModelElement> updated = new ArrayList<>();
+	LinkedHashMap<String, Point> moved = new LinkedHashMap<>();
+	
+	/**
+	 * compute compares children of two diagram roots by identifier
+     * @param previous diagram client already has
+	 * @param current new diagram
+     * @return changes turning previous diagram into current one
+     */
+	public static SModelDiff compute(SModelElement previous, SModelElement current) {
+		SModelDiff diff = new SModelDiff();
+		HashMap<String, SModelElement> previousChildren = new HashMap<>();
+		for (SModelElement child : childrenOf(previous)) {
+			previousChildren.put(child.getId(), child);
+		}
+		
+		for (SModelElement child : childrenOf(current)) {
+			SModelElement old = previousChildren.remove(child.getId());
+			if (old == null || !same(old, child, false)) {
+				diff.updated.add(child);
+			} else if (!samePosition(old, child)) {
+				diff.moved.put(child.getId(), ((BoundsAware) child).getPosition());
+			}
+		}
+		diff.removed.addAll(previousChildren.keySet());
+		return diff;
+	}
+	
+	public boolean isEmpty() {
+		return removed.isEmpty() && updated.isEmpty() && moved.isEmpty();
+	}
+	
+	/**
+	 * labelData selects condition texts of labels belonging to updated elements
+     * @param labelData condition texts of the whole diagram
+     * @return condition texts client does not have yet
+     */
+	public HashMap<String, String> labelData(Map<String, String> labelData) {
+		HashMap<String, String> result = new HashMap<>();
+		ArrayDeque<SModelElement> stack = new ArrayDeque<>(updated);
+		while (!stack.isEmpty()) {
+			SModelElement element = stack.pop();
+			if (labelData.containsKey(element.getId())) {
+				result.put(element.getId(), labelData.get(element.getId()));
+			}
+			stack.addAll(childrenOf(element));
+		}
+		return result;
+	}
+	
+	private static List<SModelElement> childrenOf(SModelElement element) {
+		return element.getChildren() == null ? List.of() : element.getChildren();
+	}
+	
+	private static boolean same(SModelElement a, SModelElement b, boolean withPosition) {
+		if (a.getClass() != b.getClass() || !Objects.equals(a.getId(), b.getId()) 
+				|| !Objects.equals(a.getType(), b.getType())) {
+			return false;
+		}
+		if (a instanceof BoundsAware) {
+			if (withPosition && !samePosition(a, b)) {
+				return false;
+			}
+			Dimension sizeA = ((BoundsAware) a).getSize();
+			Dimension sizeB = ((BoundsAware) b).getSize();
+			if ((sizeA == null) != (sizeB == null) || (sizeA != null 
+					&& (sizeA.getWidth() != sizeB.getWidth() || sizeA.getHeight() != sizeB.getHeight()))) {
+				return false;
+			}
+		}
+		if (a instanceof SLabel && !Objects.equals(((SLabel) a).getText(), ((SLabel) b).getText())) {
+			return false;
+		}
+		if (a instanceof SEdge) {
+			SEdge edgeA = (SEdge) a;
+			SEdge edgeB = (SEdge) b;
+			if (!Objects.equals(edgeA.getSourceId(), edgeB.getSourceId()) 
+					|| !Objects.equals(edgeA.getTargetId(), edgeB.getTargetId())
+					|| !samePoints(edgeA.getRoutingPoints(), edgeB.getRoutingPoints())) {
+				return false;
+			}
+		}
+		
+		List<SModelElement> childrenA = childrenOf(a);
+		List<SModelElement> childrenB = childrenOf(b);
+		if (childrenA.size() != childrenB.size()) {
+			return false;
+		}
+		for (int i = 0; i < childrenA.size(); i++) {
+			if (!same(childrenA.get(i), childrenB.get(i), true)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean samePosition(SModelElement a, SModelElement b) {
+		if (!(a instanceof BoundsAware)) {
+			return true;
+		}
+		Point positionA = ((BoundsAware) a).getPosition();
+		Point positionB = ((BoundsAware) b).getPosition();
+		return samePoint(positionA, positionB);
+	}
+	
+	private static boolean samePoints(List<Point> a, List<Point> b) {
+		if (a == null || b == null) {
+			return a == b;
+		}
+		if (a.size() != b.size()) {
+			return false;
+		}
+		for (int i = 0; i < a.size(); i++) {
+			if (!samePoint(a.get(i), b.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean samePoint(Point a, Point b) {
+		if (a == null || b == null) {
+			return a == b;
+		}
+		return a.getX() == b.getX() && a.getY() == b.getY();
+	}
+}
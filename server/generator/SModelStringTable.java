@@ -0,0 +1,48 @@
+/**
+ * SModelStringTable class documentation.
+ *
+ * This class is a SModelStringTable representation.
+ * It replaces identifiers of diagram elements and edge ends with indices of
+ * a deduplicated string table, so long port identifiers repeated in ports, edges
+ * and labels are sent to client only once
+ *
+ * @author Garaev Timur
+ */
+public class SModelStringTable {
+	private final List<String> strings = new ArrayList<>();
+	private final HashMap<String, String> references = new HashMap<>();
+
+	/**
+	 * compress replaces identifiers of all descendants of root in place
+     * @param root diagram root, its own identifier is kept
+     * @return string table, identifier "i" stands for its i-th string
+     */
+	public static List<String> compress(SModelElement root) {
+		SModelStringTable table = new SModelStringTable();
+		ArrayDeque<SModelElement> stack = new ArrayDeque<>();
+		if (root.getChildren() != null) {
+			stack.addAll(root.getChildren());
+		}
+
+		while (!stack.isEmpty()) {
+			SModelElement elem = stack.pop();
+			elem.setId(table.reference(elem.getId()));
+			if (elem instanceof SEdge) {
+				SEdge edge = (SEdge) elem;
+				edge.setSourceId(table.reference(edge.getSourceId()));
+				edge.setTargetId(table.reference(edge.getTargetId()));
+			}
+			if (elem.getChildren() != null) {
+				stack.addAll(elem.getChildren());
+			}
+		}
+		return table.strings;
+	}
+
+	private String reference(String value) {
+		return references.computeIfAbsent(value, it -> {
+			strings.add(it);
+			return Integer.toString(strings.size() - 1);
+		});
+	}
+}
@@ -25,15 +25,434 @@ public class TransitionDiagramGenerator {
 	* and layout graph we gonna send to client side
 	*/
 	private IGraphLayoutEngine engine = new RecursiveGraphLayoutEngine();
+	
+	// Gives condition text of transition, taken from model snapshot when diagram is laid out off the lock
+	private final Function<TransitionData, String> formulaText;
+	
+	public TransitionDiagramGenerator() {
+		this(TransitionData::getFormulaRepresentation);
+	}
+	
+	public TransitionDiagramGenerator(Function<TransitionData, String> _formulaText) {
+		formulaText = _formulaText;
+	}
+	
+	// Disconnected components of a diagram are laid out concurrently in this pool
+	private static final ForkJoinPool LAYOUT_POOL = new ForkJoinPool(
+			Integer.getInteger("tgen.layout.parallelism", Runtime.getRuntime().availableProcessors()));
     
+	/**
+	 * generate generates and lays out diagram sent to client with identifiers packed into string table.
+	 * Condition texts of edges are not included, client requests them with collectConditions 
+	 * when edge label is hovered
+     * @param packName name of package diagram is generated for
+	 * @param typeGraphNodes inheritance model tree with transitions
+	 * @param diagramType type of diagram
+	 * @param defaults layout default variables
+     * @return laid out diagram
+     */
     public SModelResponse generate(String packName, List<DeviceTypeNode> typeGraphNodes, String diagramType, LayoutDefault defaults) {
+        DiagramLayout layout = generateLayout(packName, typeGraphNodes, defaults, null);
+        List<String> strings = SModelStringTable.compress(layout.graph);
+        return new SModelResponse(true, "Diagram opened", layout.graph, null, strings);
+    }
+    
+	/**
+	 * collectConditions collects condition texts of transition edges without laying diagram out
+     * @param packName name of package diagram is generated for
+	 * @param typeGraphNodes inheritance model tree with transitions
+     * @return condition texts keyed by edge label identifier
+     */
+    public HashMap<String, String> collectConditions(String packName, List<DeviceTypeNode> typeGraphNodes) {
+        HashMap<String, String> label_data = new HashMap<String, String>();
+        buildGraph(packName, typeGraphNodes, label_data);
+        return label_data;
+    }
+    
+	/**
+	 * generateLayout generates and lays out diagram reusing previous layout of the same document.
+	 * Type nodes which did not change keep their internal layout, so only changed type nodes 
+	 * and edges between types are laid out again
+     * @param packName name of package diagram is generated for
+	 * @param typeGraphNodes inheritance model tree with transitions
+	 * @param defaults layout default variables
+	 * @param previous previous layout of the document, may be null
+     * @return laid out diagram
+     */
+    public DiagramLayout generateLayout(String packName, List<DeviceTypeNode> typeGraphNodes, LayoutDefault defaults, DiagramLayout previous) {
+        HashMap<String, String> label_data = new HashMap<String, String>();
+        SGraph graph = buildGraph(packName, typeGraphNodes, label_data);
+        return AnalysisMetrics.shared().timed("layout", () -> layoutGraph(graph, label_data, defaults, previous));
+    }
+    
+	/**
+	 * generateCollapsed generates diagram of types only: type nodes without attribute subnodes,
+	 * inheritance edges and one aggregate edge for all transitions between two types.
+	 * Its size and layout cost depend on number of types, not transitions
+     * @param packName name of package diagram is generated for
+	 * @param typeGraphNodes inheritance model tree with transitions
+	 * @param defaults layout default variables
+     * @return laid out collapsed diagram
+     */
+    public SModelResponse generateCollapsed(String packName, List<DeviceTypeNode> typeGraphNodes, LayoutDefault defaults) {
+        SGraph graph = new SGraph(it -> {
+            it.setType("transition:diagram");
+            it.setId(packName + "-diagram");
+        });
+        
+        List<SModelElement> children = new ArrayList<>();
+        LinkedHashMap<String, Integer> transitionCounts = new LinkedHashMap<>();
+        for (DeviceTypeNode node : typeGraphNodes) {
+        	children.add(createTypeNode(node));
+        	
+        	if (node.getParent() != null) {
+        		children.add(new SEdge(it -> {
+                    it.setSourceId(getSourcePortId(node.getParent()));
+                    it.setTargetId(getTargetPortId(node));
+                    it.setType("edge:type");
+                    it.setId(getEdgeId(it.getSourceId(), it.getTargetId()));
+                }));
+        	}
+        	
+        	for (AttributeData attr : node.getAttributes()) {
+        		if (attr.getTransitions() != null) {
+        			for (TransitionData data : attr.getTransitions()) {
+        				transitionCounts.merge(getAggregateEdgeId(
+        						getSourcePortId(node), getTargetPortId(data.getDevType())), 1, Integer::sum);
+        			}
+        		}
+        	}
+        }
+        
+        for (DeviceTypeNode node : typeGraphNodes) {
+        	HashSet<String> targets = new HashSet<>();
+        	for (AttributeData attr : node.getAttributes()) {
+        		if (attr.getTransitions() == null) {
+        			continue;
+        		}
+        		for (TransitionData data : attr.getTransitions()) {
+        			String source = getSourcePortId(node);
+        			String target = getTargetPortId(data.getDevType());
+        			if (!targets.add(target)) {
+        				continue;
+        			}
+        			
+        			int count = transitionCounts.get(getAggregateEdgeId(source, target));
+        			children.add(new SEdge(it -> {
+                        it.setSourceId(source);
+                        it.setTargetId(target);
+                        it.setType("edge:aggregate");
+                        it.setId(getAggregateEdgeId(source, target));
+                        it.setChildren(List.of(
+                        		new SLabel((it1) -> {
+                                    it1.setId(getLabelId(source, target));
+                                    it1.setText(count + (count == 1 ? " transition" : " transitions"));
+                                }))
+                        	);
+                    }));
+        		}
+        	}
+        }
+        
+        graph.setChildren(children);
+        DiagramLayout layout = AnalysisMetrics.shared().timed("layout", 
+        		() -> layoutGraph(graph, new HashMap<>(), defaults, null));
+        return new SModelResponse(true, "Diagram opened", layout.graph, layout.labelData);
+    }
+    
+	/**
+	 * generateExpandedType lays out collapsed diagram again with given types expanded: 
+	 * attribute subnodes are added to expanded types and their transitions are drawn
+	 * attribute to attribute, ends in types which are still collapsed are attached to type ports.
+	 * The whole diagram is laid out, so neighbours make room for grown type nodes
+     * @param packName name of package diagram is generated for
+	 * @param typeGraphNodes inheritance model tree with transitions
+	 * @param typeId type we want to expand
+	 * @param expanded types expanded on client side, including typeId
+	 * @param defaults layout default variables
+     * @return laid out diagram replacing the one client shows
+     */
+    public SModelResponse generateExpandedType(String packName, List<DeviceTypeNode> typeGraphNodes, String typeId, 
+    		Set<String> expanded, LayoutDefault defaults) {
+        if (typeGraphNodes.stream().noneMatch(node -> node.getId().equals(typeId))) {
+        	return new SModelResponse(false, "There no type " + typeId, new SModelRoot(), new HashMap<>());
+        }
+        
+        HashMap<String, Boolean> needAttrIds = new HashMap<>();
+        collectNeededAttrs(typeGraphNodes, needAttrIds);
+        
+        SGraph graph = new SGraph(it -> {
+            it.setType("transition:diagram");
+            it.setId(packName + "-diagram");
+        });
+        
+        List<SModelElement> children = new ArrayList<>();
+        LinkedHashMap<String, Integer> transitionCounts = new LinkedHashMap<>();
+        LinkedHashMap<String, String> labels = new LinkedHashMap<>();
+        HashMap<String, String[]> ends = new HashMap<>();
+        for (DeviceTypeNode node : typeGraphNodes) {
+        	SNodeExt typeNode = createTypeNode(node);
+        	if (expanded.contains(node.getId())) {
+        		for (AttributeData attr : node.getAttributes()) {
+        			if (needAttrIds.containsKey(getAttrNodeId(node, attr))) {
+        				typeNode.getChildren().add(createAttrNode(node, attr));
+        			}
+        		}
+        	}
+        	children.add(typeNode);
+        	
+        	if (node.getParent() != null) {
+        		children.add(new SEdge(it -> {
+                    it.setSourceId(getSourcePortId(node.getParent()));
+                    it.setTargetId(getTargetPortId(node));
+                    it.setType("edge:type");
+                    it.setId(getEdgeId(it.getSourceId(), it.getTargetId()));
+                }));
+        	}
+        	
+        	for (AttributeData attr : node.getAttributes()) {
+        		if (attr.getTransitions() == null) {
+        			continue;
+        		}
+        		for (TransitionData data : attr.getTransitions()) {
+        			if (!expanded.contains(node.getId()) && !expanded.contains(data.getDevType())) {
+        				String id = getAggregateEdgeId(getSourcePortId(node), getTargetPortId(data.getDevType()));
+        				transitionCounts.merge(id, 1, Integer::sum);
+        				ends.putIfAbsent(id, new String[] { getSourcePortId(node), getTargetPortId(data.getDevType()) });
+        				continue;
+        			}
+        			
+        			String source = expanded.contains(node.getId()) 
+        					? getSourcePortId(node, attr) : getSourcePortId(node);
+        			String target = expanded.contains(data.getDevType()) 
+        					? getTargetPortId(data) : getTargetPortId(data.getDevType());
+        			String id = getEdgeId(source, target);
+        			
+        			ends.put(id, new String[] { source, target });
+        			labels.merge(id, formulaText.apply(data), (a, b) -> a + "\n" + b);
+        		}
+        	}
+        }
+        
+        for (Map.Entry<String, Integer> aggregate : transitionCounts.entrySet()) {
+        	String source = ends.get(aggregate.getKey())[0];
+        	String target = ends.get(aggregate.getKey())[1];
+        	int count = aggregate.getValue();
+        	children.add(new SEdge(it -> {
+                it.setSourceId(source);
+                it.setTargetId(target);
+                it.setType("edge:aggregate");
+                it.setId(aggregate.getKey());
+                it.setChildren(List.of(
+                		new SLabel((it1) -> {
+                            it1.setId(getLabelId(source, target));
+                            it1.setText(count + (count == 1 ? " transition" : " transitions"));
+                        }))
+                	);
+            }));
+        }
+        
+        HashMap<String, String> label_data = new HashMap<>();
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+        	String source = ends.get(label.getKey())[0];
+        	String target = ends.get(label.getKey())[1];
+        	children.add(new SEdge(it -> {
+                it.setSourceId(source);
+                it.setTargetId(target);
+                it.setType("edge:transition");
+                it.setId(label.getKey());
+                it.setChildren(List.of(
+                		new SLabel((it1) -> {
+                            it1.setId(getLabelId(source, target));
+                            it1.setText("Conditions:");
+                        }))
+                	);
+            }));
+        	label_data.put(getLabelId(source, target), label.getValue());
+        }
+        
+        graph.setChildren(children);
+        DiagramLayout layout = AnalysisMetrics.shared().timed("layout", 
+        		() -> layoutGraph(graph, label_data, defaults, null));
+        return new SModelResponse(true, "Type expanded", layout.graph, layout.labelData);
+    }
+    
+	/**
+	 * layoutGraph lays out generated diagram
+     * @param graph Sprotty graph of diagram
+	 * @param label_data condition texts of edge labels
+	 * @param defaults layout default variables
+	 * @param previous previous layout of the document, may be null
+     * @return laid out diagram
+     */
+    private DiagramLayout layoutGraph(SGraph graph, HashMap<String, String> label_data, LayoutDefault defaults, 
+    		DiagramLayout previous) {
+        HashMap<String, String> signatures = new HashMap<>();
+        for (SModelElement elem : graph.getChildren()) {
+        	if (elem instanceof SNode) {
+        		signatures.put(elem.getId(), DiagramLayout.signature(elem));
+        	}
+        }
+        
+        List<List<SModelElement>> components = findComponents(graph);
+        if (components.size() <= 1) {
+        	ElkNode elkGraph = layoutComponent(graph, engine, defaults, signatures, previous);
+        	return new DiagramLayout(graph, List.of(elkGraph), signatures, label_data);
+        }
+        
+        List<SGraph> componentGraphs = new ArrayList<>();
+        List<ForkJoinTask<ElkNode>> tasks = new ArrayList<>();
+        for (List<SModelElement> component : components) {
+        	SGraph componentGraph = new SGraph(it -> {
+        		it.setType(graph.getType());
+        		it.setId(graph.getId() + "-" + componentGraphs.size());
+        		it.setChildren(component);
+        	});
+        	componentGraphs.add(componentGraph);
+        	tasks.add(LAYOUT_POOL.submit(() -> layoutComponent(
+        			componentGraph, new RecursiveGraphLayoutEngine(), defaults, signatures, previous)));
+        }
+        
+        List<ElkNode> elkGraphs = new ArrayList<>();
+        for (ForkJoinTask<ElkNode> task : tasks) {
+        	elkGraphs.add(task.join());
+        }
+        pack(graph, componentGraphs, elkGraphs);
+        return new DiagramLayout(graph, elkGraphs, signatures, label_data);
+    }
+    
+	/**
+	 * layoutComponent lays out one connected part of diagram
+     * @param graph Sprotty graph of the part
+	 * @param layoutEngine engine owned by calling thread
+	 * @param defaults layout default variables
+	 * @param signatures signatures of type nodes of new diagram
+	 * @param previous previous layout of the document, may be null
+     * @return laid out ELK graph
+     */
+    private ElkNode layoutComponent(SGraph graph, IGraphLayoutEngine layoutEngine, LayoutDefault defaults,
+    		Map<String, String> signatures, DiagramLayout previous) {
+        ElkNode elkGraph = new ElkTransformer(defaults).transformTransitionToElk(graph);
+        if (previous != null) {
+        	reuseLayout(elkGraph, signatures, previous);
+        }
+        layoutEngine.layout(elkGraph, new BasicProgressMonitor());
+        applyBounds(graph, elkGraph);
+        return elkGraph;
+    }
+    
+	/**
+	 * findComponents splits root children into connected parts of type and transition graph.
+	 * Edge belongs to the part of type nodes its ends are located in
+     * @param graph Sprotty graph
+     * @return root children of every part in original order
+     */
+    private List<List<SModelElement>> findComponents(SGraph graph) {
+    	List<SModelElement> children = graph.getChildren();
+    	int[] parent = new int[children.size()];
+    	HashMap<String, Integer> owner = new HashMap<>();
+    	for (int i = 0; i < children.size(); i++) {
+    		parent[i] = i;
+    		if (children.get(i) instanceof SNode) {
+    			ArrayDeque<SModelElement> stack = new ArrayDeque<>();
+    			stack.push(children.get(i));
+    			while (!stack.isEmpty()) {
+    				SModelElement elem = stack.pop();
+    				owner.put(elem.getId(), i);
+    				if (elem.getChildren() != null) {
+    					stack.addAll(elem.getChildren());
+    				}
+    			}
+    		}
+    	}
+    	
+    	for (int i = 0; i < children.size(); i++) {
+    		if (children.get(i) instanceof SEdge) {
+    			SEdge edge = (SEdge) children.get(i);
+    			for (String end : List.of(edge.getSourceId(), edge.getTargetId())) {
+    				Integer node = owner.get(end);
+    				if (node != null) {
+    					parent[find(parent, i)] = find(parent, node);
+    				}
+    			}
+    		}
+    	}
+    	
+    	LinkedHashMap<Integer, List<SModelElement>> components = new LinkedHashMap<>();
+    	for (int i = 0; i < children.size(); i++) {
+    		components.computeIfAbsent(find(parent, i), key -> new ArrayList<>()).add(children.get(i));
+    	}
+    	return new ArrayList<>(components.values());
+    }
+    
+    private static int find(int[] parent, int v) {
+    	while (parent[v] != v) {
+    		parent[v] = parent[parent[v]];
+    		v = parent[v];
+    	}
+    	return v;
+    }
+    
+	/**
+	 * pack places laid out parts of diagram next to each other with ELK box layout
+	 * and moves their elements to resulting positions
+     * @param graph whole Sprotty graph
+	 * @param componentGraphs Sprotty graphs of parts
+	 * @param elkGraphs laid out ELK graphs of parts
+     */
+    private void pack(SGraph graph, List<SGraph> componentGraphs, List<ElkNode> elkGraphs) {
+    	ElkNode packing = ElkGraphUtil.createGraph();
+    	packing.setProperty(CoreOptions.ALGORITHM, "org.eclipse.elk.box");
+    	List<ElkNode> boxes = new ArrayList<>();
+    	for (ElkNode elkGraph : elkGraphs) {
+    		ElkNode box = ElkGraphUtil.createNode(packing);
+    		box.setDimensions(elkGraph.getWidth(), elkGraph.getHeight());
+    		boxes.add(box);
+    	}
+    	engine.layout(packing, new BasicProgressMonitor());
+    	
+    	for (int i = 0; i < componentGraphs.size(); i++) {
+    		double dx = boxes.get(i).getX();
+    		double dy = boxes.get(i).getY();
+    		for (SModelElement elem : componentGraphs.get(i).getChildren()) {
+    			if (elem instanceof SEdge) {
+    				SEdge edge = (SEdge) elem;
+    				if (edge.getRoutingPoints() != null) {
+    					List<Point> path = new ArrayList<>();
+    					for (Point point : edge.getRoutingPoints()) {
+    						path.add(new Point(point.getX() + dx, point.getY() + dy));
+    					}
+    					edge.setRoutingPoints(path);
+    				}
+    				if (edge.getChildren() != null) {
+    					for (SModelElement label : edge.getChildren()) {
+    						shift(label, dx, dy);
+    					}
+    				}
+    			} else {
+    				shift(elem, dx, dy);
+    			}
+    		}
+    	}
+    	
+    	graph.setPosition(new Point(0, 0));
+    	graph.setSize(new Dimension(packing.getWidth(), packing.getHeight()));
+    }
+    
+    private static void shift(SModelElement elem, double dx, double dy) {
+    	if (elem instanceof BoundsAware && ((BoundsAware) elem).getPosition() != null) {
+    		Point position = ((BoundsAware) elem).getPosition();
+    		((BoundsAware) elem).setPosition(new Point(position.getX() + dx, position.getY() + dy));
+    	}
+    }
+    
+    private SGraph buildGraph(String packName, List<DeviceTypeNode> typeGraphNodes, HashMap<String, String> label_data) {
         SGraph graph = new SGraph(it -> {
             it.setType("transition:diagram");
             it.setId(packName + "-diagram");
         });
         
         HashMap<String, String> labels = new HashMap<String, String>();
-        HashMap<String, String> label_data = new HashMap<String, String>();
         HashMap<String, Boolean> needAttrIds = new HashMap<>();
         collectNeededAttrs(typeGraphNodes, needAttrIds);
         
@@ -42,77 +461,17 @@ public class TransitionDiagramGenerator {
         List<SModelElement> children = new ArrayList<>();
         for (DeviceTypeNode node : typeGraphNodes) {
         	// Add and setup nodes
-        	SNodeExt curNode = new SNodeExt(
-                    new HashMap<>(),
-                    it -> {
-                        it.setId(node.getId());
-                        it.setType("node:type");
-                        it.setChildren(new ArrayList<>());
-                    }
-                );
-        	curNode.getProperties().put(CoreOptions.NODE_LABELS_PLACEMENT, EnumSet.of(
-	                NodeLabelPlacement.H_CENTER,
-	                NodeLabelPlacement.V_TOP,
-	                NodeLabelPlacement.INSIDE   
-	            ));
-        	curNode.getProperties().put(CoreOptions.NODE_SIZE_CONSTRAINTS, 
-        			EnumSet.of(SizeConstraint.MINIMUM_SIZE, SizeConstraint.NODE_LABELS)
-        		);
+        	SNodeExt curNode = createTypeNode(node);
         	
         	// Add attribute subnodes
-        	List<SModelElement> subNodes = new ArrayList<>();
-        	
-        	subNodes.addAll(
-    			List.of(
-	    			new SLabel((it1) -> {
-		                it1.setId(node.getId());
-		                it1.setText(node.getId());
-		            }),
-	        		new SPort(it1 -> {
-	                    it1.setId(getTargetPortId(node));
-	                    it1.setChildren(new ArrayList<>());
-	                }),
-	        		new SPort(it1 -> {
-	                    it1.setId(getSourcePortId(node));
-	                    it1.setChildren(new ArrayList<>());
-	                })
-	            ));
+        	List<SModelElement> subNodes = new ArrayList<>(curNode.getChildren());
         	
         	for (AttributeData attr : node.getAttributes()) {
         		if (!needAttrIds.containsKey(getAttrNodeId(node, attr))) {
         			continue;
         		}
         		
-        		SNodeExt attrNode = new SNodeExt(
-                        new HashMap<>(),
-                        it -> {
-                            it.setId(getAttrNodeId(node, attr));
-                            it.setType("node:attr");
-                            it.setChildren(List.of(
-                            		new SLabel((it1) -> {
-                                        it1.setId(getNodeLabelId(node, attr));
-                                        it1.setText(getAttrNodeId(node, attr));
-                                    }),
-                            		new SPort(it1 -> {
-    		                            it1.setId(getSourcePortId(node, attr));
-    		                            it1.setChildren(new ArrayList<>());
-    		                        }),
-                            		new SPort(it1 -> {
-    		                            it1.setId(getTargetPortId(node, attr));
-    		                            it1.setChildren(new ArrayList<>());
-    		                        })
-                            	));
-                        }
-                    );
-        		attrNode.getProperties().put(CoreOptions.NODE_LABELS_PLACEMENT, EnumSet.of(
-    	                NodeLabelPlacement.H_CENTER,
-    	                NodeLabelPlacement.V_CENTER,
-    	                NodeLabelPlacement.INSIDE   
-    	            ));
-            	attrNode.getProperties().put(CoreOptions.NODE_SIZE_CONSTRAINTS, 
-            			EnumSet.of(SizeConstraint.MINIMUM_SIZE, SizeConstraint.NODE_LABELS)
-                	);
-
+        		SNodeExt attrNode = createAttrNode(node, attr);
             	subNodes.add(attrNode);
             	
             	
@@ -127,9 +486,9 @@ public class TransitionDiagramGenerator {
             			String id = getEdgeId(source, target);
             			
             			if (labels.get(id) != null) {
-            				labels.put(id, labels.get(id) + "\n" + data.getFormulaRepresentation());
+            				labels.put(id, labels.get(id) + "\n" + formulaText.apply(data));
             			} else {
-            				labels.put(id, data.getFormulaRepresentation());
+            				labels.put(id, formulaText.apply(data));
             			}
             		}
             		
@@ -174,12 +533,163 @@ public class TransitionDiagramGenerator {
         }
         
         graph.setChildren(children);
-        ElkNode elkGraph = new ElkTransformer(defaults).transformTransitionToElk(graph);
-        engine.layout(elkGraph, new BasicProgressMonitor());
-        applyBounds(graph, elkGraph);
-        return new SModelResponse(true, "Diagram opened", graph, label_data);
+        return graph;
+    }
+    
+	/**
+	 * reuseLayout fixes internal layout of type nodes whose signature did not change 
+	 * and asks layered algorithm to keep previous order of type nodes
+     * @param elkGraph ELK graph we are going to lay out
+	 * @param signatures signatures of type nodes of new diagram
+	 * @param previous previous layout of the document
+     */
+    private void reuseLayout(ElkNode elkGraph, Map<String, String> signatures, DiagramLayout previous) {
+    	ElkGraphIndex index = new ElkGraphIndex(elkGraph);
+    	ElkGraphIndex previousIndex = previous.elkIndex();
+    	
+    	for (Map.Entry<String, String> type : signatures.entrySet()) {
+    		ElkNode node = index.nodes.get(type.getKey());
+    		ElkNode laidOut = previousIndex.nodes.get(type.getKey());
+    		if (node != null && laidOut != null && type.getValue().equals(previous.signatures.get(type.getKey()))) {
+    			node.setLocation(laidOut.getX(), laidOut.getY());
+    			freeze(node, laidOut);
+    		}
+    	}
+    	
+    	// Previous positions become hints for layering and crossing minimization
+    	elkGraph.setProperty(LayeredOptions.CYCLE_BREAKING_STRATEGY, CycleBreakingStrategy.INTERACTIVE);
+    	elkGraph.setProperty(LayeredOptions.LAYERING_STRATEGY, LayeringStrategy.INTERACTIVE);
+    	elkGraph.setProperty(LayeredOptions.CROSSING_MINIMIZATION_SEMI_INTERACTIVE, true);
+    }
+    
+	/**
+	 * freeze copies layout of node content from previous ELK graph 
+	 * and excludes node from layout
+     * @param node node of new ELK graph
+	 * @param laidOut node with the same identifier in previous ELK graph
+     */
+    private static void freeze(ElkNode node, ElkNode laidOut) {
+    	node.setDimensions(laidOut.getWidth(), laidOut.getHeight());
+    	node.setProperty(CoreOptions.NO_LAYOUT, true);
+    	node.setProperty(CoreOptions.NODE_SIZE_CONSTRAINTS, SizeConstraint.fixed());
+    	node.setProperty(CoreOptions.PORT_CONSTRAINTS, PortConstraints.FIXED_POS);
+    	
+    	HashMap<String, ElkPort> ports = new HashMap<>();
+    	for (ElkPort port : laidOut.getPorts()) {
+    		ports.put(port.getIdentifier(), port);
+    	}
+    	for (ElkPort port : node.getPorts()) {
+    		ElkPort old = ports.get(port.getIdentifier());
+    		if (old != null) {
+    			port.setLocation(old.getX(), old.getY());
+    			port.setDimensions(old.getWidth(), old.getHeight());
+    		}
+    	}
+    	
+    	HashMap<String, ElkLabel> labels = new HashMap<>();
+    	for (ElkLabel label : laidOut.getLabels()) {
+    		labels.put(label.getIdentifier(), label);
+    	}
+    	for (ElkLabel label : node.getLabels()) {
+    		ElkLabel old = labels.get(label.getIdentifier());
+    		if (old != null) {
+    			label.setLocation(old.getX(), old.getY());
+    			label.setDimensions(old.getWidth(), old.getHeight());
+    		}
+    	}
+    	
+    	HashMap<String, ElkNode> children = new HashMap<>();
+    	for (ElkNode child : laidOut.getChildren()) {
+    		children.put(child.getIdentifier(), child);
+    	}
+    	for (ElkNode child : node.getChildren()) {
+    		ElkNode old = children.get(child.getIdentifier());
+    		if (old != null) {
+    			child.setLocation(old.getX(), old.getY());
+    			freeze(child, old);
+    		}
+    	}
     }
 
+	/**
+	 * createTypeNode creates type node with its label and ports, without attribute subnodes
+     * @param node type of inheritance model tree
+     * @return Sprotty node of type
+     */
+    private SNodeExt createTypeNode(DeviceTypeNode node) {
+    	SNodeExt curNode = new SNodeExt(
+                new HashMap<>(),
+                it -> {
+                    it.setId(node.getId());
+                    it.setType("node:type");
+                    it.setChildren(new ArrayList<>());
+                }
+            );
+    	curNode.getProperties().put(CoreOptions.NODE_LABELS_PLACEMENT, EnumSet.of(
+                NodeLabelPlacement.H_CENTER,
+                NodeLabelPlacement.V_TOP,
+                NodeLabelPlacement.INSIDE   
+            ));
+    	curNode.getProperties().put(CoreOptions.NODE_SIZE_CONSTRAINTS, 
+    			EnumSet.of(SizeConstraint.MINIMUM_SIZE, SizeConstraint.NODE_LABELS)
+    		);
+    	
+    	curNode.setChildren(new ArrayList<>(List.of(
+    			new SLabel((it1) -> {
+	                it1.setId(node.getId());
+	                it1.setText(node.getId());
+	            }),
+        		new SPort(it1 -> {
+                    it1.setId(getTargetPortId(node));
+                    it1.setChildren(new ArrayList<>());
+                }),
+        		new SPort(it1 -> {
+                    it1.setId(getSourcePortId(node));
+                    it1.setChildren(new ArrayList<>());
+                })
+            )));
+    	return curNode;
+    }
+    
+	/**
+	 * createAttrNode creates attribute subnode with its label and ports
+     * @param node type of inheritance model tree
+	 * @param attr attribute of type
+     * @return Sprotty node of attribute
+     */
+    private SNodeExt createAttrNode(DeviceTypeNode node, AttributeData attr) {
+    	SNodeExt attrNode = new SNodeExt(
+                new HashMap<>(),
+                it -> {
+                    it.setId(getAttrNodeId(node, attr));
+                    it.setType("node:attr");
+                    it.setChildren(List.of(
+                    		new SLabel((it1) -> {
+                                it1.setId(getNodeLabelId(node, attr));
+                                it1.setText(getAttrNodeId(node, attr));
+                            }),
+                    		new SPort(it1 -> {
+	                            it1.setId(getSourcePortId(node, attr));
+	                            it1.setChildren(new ArrayList<>());
+	                        }),
+                    		new SPort(it1 -> {
+	                            it1.setId(getTargetPortId(node, attr));
+	                            it1.setChildren(new ArrayList<>());
+	                        })
+                    	));
+                }
+            );
+    	attrNode.getProperties().put(CoreOptions.NODE_LABELS_PLACEMENT, EnumSet.of(
+                NodeLabelPlacement.H_CENTER,
+                NodeLabelPlacement.V_CENTER,
+                NodeLabelPlacement.INSIDE   
+            ));
+    	attrNode.getProperties().put(CoreOptions.NODE_SIZE_CONSTRAINTS, 
+    			EnumSet.of(SizeConstraint.MINIMUM_SIZE, SizeConstraint.NODE_LABELS)
+        	);
+    	return attrNode;
+    }
+    
 	private String getSourcePortId(DeviceTypeNode node) {
 		return getNodeId(node) + PORT_RIGHT;
 	}
@@ -196,6 +706,10 @@ public class TransitionDiagramGenerator {
 		return getNodeId(node) + PORT_LEFT;
 	}
 	
+	private String getTargetPortId(String node) {
+		return node + PORT_LEFT;
+	}
+	
 	private String getTargetPortId(TransitionData data) {
     	return data.getDevType() + ":" + data.getAttribute() + PORT_LEFT;
 	}
@@ -223,6 +737,10 @@ public class TransitionDiagramGenerator {
     	return source + "2" + target + "-edge";
     }
     
+    private String getAggregateEdgeId(String source, String target) {
+    	return source + "2" + target + "-aggregate";
+    }
+    
 	private String getNodeId(DeviceTypeNode node) {
 		return node.getId();
 	}
@@ -254,6 +772,17 @@ public class TransitionDiagramGenerator {
 	 * @param elkNode node corresponding to sNode in another ELK diagram
      */
 	public static void applyBounds(BoundsAware sNode, ElkNode elkNode) {
+		applyBounds(sNode, elkNode, new ElkGraphIndex(elkNode));
+	}
+	
+	/**
+	 * applyBounds copies bounds and routing points of laid out ELK elements 
+	 * to Sprotty elements with the same identifiers
+     * @param sNode Sprotty node we wanna expand
+	 * @param elkNode node corresponding to sNode in another ELK diagram
+	 * @param index identifiers of all elements of ELK diagram
+     */
+	private static void applyBounds(BoundsAware sNode, ElkNode elkNode, ElkGraphIndex index) {
         sNode.setPosition(new Point(elkNode.getX(), elkNode.getY()));
         sNode.setSize(new Dimension(elkNode.getWidth(), elkNode.getHeight()));
         
@@ -264,72 +793,64 @@ public class TransitionDiagramGenerator {
         if (children == null) {
             return;
         }
-        int elkChildInd = 0;
-        EList<ElkNode> elkChildren = elkNode.getChildren();
         for (SModelElement elem : children) {
             if (elem instanceof SNode) {
-                int curInd = elkChildInd;
-                do {
-                    ElkNode curElkNode = elkChildren.get(curInd);
-                    if (elem.getId().equals(curElkNode.getIdentifier())) {
-                        applyBounds((BoundsAware) elem, curElkNode);
-                        elkChildInd = (curInd + 1) % elkChildren.size();
-                        break;
-                    }
-                    curInd = (curInd + 1) % elkChildren.size();
-                } while (curInd != elkChildInd);
+            	ElkNode curElkNode = index.nodes.get(elem.getId());
+            	if (curElkNode != null) {
+            		applyBounds((BoundsAware) elem, curElkNode, index);
+            	}
             } else if (elem instanceof SLabel) {
-                for (ElkLabel elkLabel : elkNode.getLabels()) {
-                    if (elkLabel.getIdentifier().equals(elem.getId())) {
-                        ((SLabel) elem).setPosition(new Point(elkLabel.getX(), elkLabel.getY()));
-                        ((SLabel) elem).setSize(new Dimension(elkLabel.getWidth(), elkLabel.getHeight()));
-                    }
-                }
+            	applyBounds((SLabel) elem, index.labels.get(elem.getId()));
             } else if (elem instanceof SEdge) {
-            	for (ElkEdge edge : elkNode.getContainedEdges()) {
-            		if (edge.getIdentifier().equals(elem.getId())) {
-            			List<ElkEdgeSection> sections = edge.getSections();
-                		if (edge.getSections() == null || edge.getSections().size() == 0) {
-                			continue;
-                		}
-                		List<Point> path = new ArrayList<>();
-                		path.add(new Point(
-    	            				sections.get(0).getStartX(),
-    	            				sections.get(0).getStartY())
-                				);
-                		
-                		for (ElkEdgeSection cur : sections) {
-                			if (cur.getBendPoints() != null) {
-                				for (ElkBendPoint bend : cur.getBendPoints()) {
-                					path.add(new Point(
-            	            				bend.getX(),
-            	            				bend.getY())
-                        				);
-                				}
-                			}
-                			path.add(new Point(
-    	            				cur.getEndX(),
-    	            				cur.getEndY())
-                				);
-                		}
-                		
-                		for (ElkLabel elkLabel : edge.getLabels()) {
-                            for (SModelElement sLabel : ((SEdge)elem).getChildren()) {
-                            	if (elkLabel.getIdentifier() == sLabel.getId()) {
-                            		 ((SLabel) sLabel).setPosition(new Point(elkLabel.getX(), elkLabel.getY()));
-                                     ((SLabel) sLabel).setSize(new Dimension(elkLabel.getWidth(), elkLabel.getHeight()));
-                                     break;
-                            	}
-                            }
-                        }
-                		
-                		((SEdge) elem).setRoutingPoints(path);
-                		break;
-            		}
+            	ElkEdge edge = index.edges.get(elem.getId());
+            	if (edge == null) {
+            		continue;
             	}
+            	
+    			List<ElkEdgeSection> sections = edge.getSections();
+        		if (sections == null || sections.size() == 0) {
+        			continue;
+        		}
+        		List<Point> path = new ArrayList<>();
+        		path.add(new Point(
+            				sections.get(0).getStartX(),
+            				sections.get(0).getStartY())
+        				);
+        		
+        		for (ElkEdgeSection cur : sections) {
+        			if (cur.getBendPoints() != null) {
+        				for (ElkBendPoint bend : cur.getBendPoints()) {
+        					path.add(new Point(
+    	            				bend.getX(),
+    	            				bend.getY())
+                				);
+        				}
+        			}
+        			path.add(new Point(
+            				cur.getEndX(),
+            				cur.getEndY())
+        				);
+        		}
+        		
+        		if (elem.getChildren() != null) {
+        			for (SModelElement sLabel : elem.getChildren()) {
+        				if (sLabel instanceof SLabel) {
+        					applyBounds((SLabel) sLabel, index.labels.get(sLabel.getId()));
+        				}
+        			}
+        		}
+        		
+        		((SEdge) elem).setRoutingPoints(path);
             }
         }
     }
+	
+	private static void applyBounds(SLabel sLabel, ElkLabel elkLabel) {
+		if (elkLabel != null) {
+			sLabel.setPosition(new Point(elkLabel.getX(), elkLabel.getY()));
+			sLabel.setSize(new Dimension(elkLabel.getWidth(), elkLabel.getHeight()));
+		}
+	}
     
 	/**
 	 * parseLayoutDefaults applies some layout default variables that can be setup 
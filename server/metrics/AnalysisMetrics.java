@@ -0,0 +1,143 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * AnalysisMetrics class documentation.
+ *
+ * This class is a AnalysisMetrics representation.
+ * It aggregates timings of analysis phases and tgen requests, counters of solver calls,
+ * expanded attributes and cache lookups, and latency histogram of isUnsat calls.
+ * Every timed phase is also committed as tgen.Phase JFR event, so a flight recording
+ * of running editor shows where time of a slow request goes.
+ *
+ * Phases may be nested: time of formula parsing is also part of solving phase
+ *
+ * @author Garaev Timur
+ */
+public class AnalysisMetrics {
+	public static final String PROVERS_CREATED = "solver.provers";
+	public static final String UNSAT_CALLS = "solver.isUnsat";
+	public static final String SOLVER_FAILURES = "solver.failures";
+	public static final String QUERY_TIMEOUTS = "solver.queryTimeouts";
+	public static final String PRESOLVER_DECIDED = "presolver.decided";
+	public static final String PRESOLVER_UNDECIDED = "presolver.undecided";
+	public static final String CONFLICTS_LEARNED = "search.conflictsLearned";
+	public static final String CONFLICTS_PRUNED = "search.conflictsPruned";
+	public static final String NODES_EXPANDED = "search.nodesExpanded";
+	public static final String RESULT_CACHE_HITS = "cache.result.hits";
+	public static final String RESULT_CACHE_MISSES = "cache.result.misses";
+	public static final String DISK_CACHE_HITS = "cache.disk.hits";
+	public static final String COALESCED_REQUESTS = "analysis.coalesced";
+	public static final String FORMULA_CACHE_HITS = "cache.formula.hits";
+	public static final String FORMULA_CACHE_MISSES = "cache.formula.misses";
+
+	private static final AnalysisMetrics SHARED = new AnalysisMetrics();
+
+	// Bucket i counts calls which took less than 2^i microseconds, the last one counts the rest
+	private static final int LATENCY_BUCKETS = 24;
+
+	private final Map<String, PhaseStats> phases = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private final AtomicLongArray unsatLatency = new AtomicLongArray(LATENCY_BUCKETS);
+
+	private static class PhaseStats {
+		final LongAdder count = new LongAdder();
+		final LongAdder totalNanos = new LongAdder();
+		final AtomicLong maxNanos = new AtomicLong();
+	}
+
+	/**
+	 * Timer measures one run of a phase, it is stopped by close
+	 */
+	public class Timer implements AutoCloseable {
+		private final String phase;
+		private final long start = System.nanoTime();
+		private final PhaseEvent event = new PhaseEvent();
+
+		private Timer(String _phase) {
+			phase = _phase;
+			event.phase = _phase;
+			event.begin();
+		}
+
+		@Override
+		public void close() {
+			long elapsed = System.nanoTime() - start;
+			event.commit();
+			record(phase, elapsed);
+		}
+	}
+
+	public static AnalysisMetrics shared() {
+		return SHARED;
+	}
+
+	public Timer start(String phase) {
+		return new Timer(phase);
+	}
+
+	/**
+	 * timed measures given computation as one run of a phase
+     * @param phase phase name
+	 * @param compute computation
+     * @return result of computation
+     */
+	public <T> T timed(String phase, Supplier<T> compute) {
+		try (Timer timer = start(phase)) {
+			return compute.get();
+		}
+	}
+
+	public void increment(String counter) {
+		add(counter, 1);
+	}
+
+	public void add(String counter, long value) {
+		counters.computeIfAbsent(counter, key -> new LongAdder()).add(value);
+	}
+
+	/**
+	 * recordUnsat counts one isUnsat call and puts its latency into histogram
+     * @param nanos call duration
+     */
+	public void recordUnsat(long nanos) {
+		increment(UNSAT_CALLS);
+		long micros = nanos / 1000;
+		int bucket = micros == 0 ? 0 : Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		unsatLatency.incrementAndGet(bucket);
+	}
+
+	private void record(String phase, long nanos) {
+		PhaseStats stats = phases.computeIfAbsent(phase, key -> new PhaseStats());
+		stats.count.increment();
+		stats.totalNanos.add(nanos);
+		stats.maxNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	/**
+	 * snapshot aggregates metrics collected since start of the server
+     * @return metrics in a form sent to client
+     */
+	public AnalysisStats snapshot() {
+		AnalysisStats stats = new AnalysisStats();
+		for (Map.Entry<String, PhaseStats> phase : new TreeMap<>(phases).entrySet()) {
+			PhaseStats value = phase.getValue();
+			stats.addPhase(phase.getKey(), value.count.sum(), value.totalNanos.sum(), value.maxNanos.get());
+		}
+		for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+			stats.addCounter(counter.getKey(), counter.getValue().sum());
+		}
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			long count = unsatLatency.get(i);
+			if (count > 0) {
+				stats.addUnsatLatency(i == LATENCY_BUCKETS - 1 ? "rest" : "<" + (1L << i) + "us", count);
+			}
+		}
+		return stats;
+	}
+}
@@ -0,0 +1,56 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * AnalysisStats class documentation.
+ *
+ * This class is a AnalysisStats representation.
+ * It is snapshot of AnalysisMetrics sent to client by tgen/stats request
+ *
+ * @author Garaev Timur
+ */
+public class AnalysisStats {
+	LinkedHashMap<String, Phase> phases = new LinkedHashMap<>();
+	LinkedHashMap<String, Long> counters = new LinkedHashMap<>();
+	// Number of isUnsat calls by latency bucket
+	LinkedHashMap<String, Long> unsatLatency = new LinkedHashMap<>();
+
+	static class Phase {
+		long count;
+		double totalMillis;
+		double meanMillis;
+		double maxMillis;
+	}
+
+	void addPhase(String name, long count, long totalNanos, long maxNanos) {
+		Phase phase = new Phase();
+		phase.count = count;
+		phase.totalMillis = totalNanos / 1e6;
+		phase.meanMillis = count == 0 ? 0 : totalNanos / 1e6 / count;
+		phase.maxMillis = maxNanos / 1e6;
+		phases.put(name, phase);
+	}
+
+	void addCounter(String name, long value) {
+		counters.put(name, value);
+	}
+
+	void addUnsatLatency(String bucket, long count) {
+		unsatLatency.put(bucket, count);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("Phases:\n");
+		for (Map.Entry<String, Phase> phase : phases.entrySet()) {
+			Phase value = phase.getValue();
+			result.append(String.format("%s: %d runs, %.1f ms total, %.2f ms mean, %.2f ms max\n",
+					phase.getKey(), value.count, value.totalMillis, value.meanMillis, value.maxMillis));
+		}
+		result.append("Counters:\n");
+		counters.forEach((name, value) -> result.append(name).append(": ").append(value).append('\n'));
+		result.append("isUnsat latency:\n");
+		unsatLatency.forEach((bucket, count) -> result.append(bucket).append(": ").append(count).append('\n'));
+		return result.toString();
+	}
+}
@@ -0,0 +1,21 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * PhaseEvent class documentation.
+ *
+ * This class is a PhaseEvent representation.
+ * It is JFR event of one analysis phase or tgen request timed by AnalysisMetrics
+ *
+ * @author Garaev Timur
+ */
+@Name("tgen.Phase")
+@Label("Transition Analysis Phase")
+@Category({ "DevM", "Transition Generator" })
+@Description("Graph building, formula parsing, solving, layout or a whole tgen request")
+class PhaseEvent extends jdk.jfr.Event {
+	@Label("Phase")
+	String phase;
+}
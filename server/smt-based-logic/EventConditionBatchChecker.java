@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.sosy_lab.java_smt.api.BooleanFormula;
+import org.sosy_lab.java_smt.api.ProverEnvironment;
+import org.sosy_lab.java_smt.api.SolverException;
+
+/**
+ * EventConditionBatchChecker class documentation.
+ *
+ * This class is a EventConditionBatchChecker representation.
+ * It checks satisfiability of event conditions in parallel. Event list is split into
+ * contiguous chunks, every worker leases its own solver context from SMTManagerPool 
+ * (JavaSMT contexts are not thread-safe) and writes verdicts by event position, 
+ * so result order does not depend on scheduling. Events whose check failed are 
+ * reported as unknown, as well as events left unchecked when budget runs out
+ *
+ * Workers run on a fixed pool of tgen.smt.parallelism threads, which is also 
+ * default and the greatest parallelism of one batch
+ *
+ * @author Garaev Timur
+ */
+public class EventConditionBatchChecker {
+	public static final int DEFAULT_PARALLELISM = Math.max(1, Integer.getInteger(
+			"tgen.smt.parallelism", Runtime.getRuntime().availableProcessors()));
+	
+	// Smaller chunks do not pay back leasing one more context
+	private static final int MIN_CHUNK_SIZE = 8;
+	
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(DEFAULT_PARALLELISM, task -> {
+		Thread thread = new Thread(task, "tgen-event-check");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private final int parallelism;
+	private final SMTManagerPool pool;
+	private final List<String> unknown = new ArrayList<>();
+	
+	public EventConditionBatchChecker() {
+		this(DEFAULT_PARALLELISM);
+	}
+	
+	public EventConditionBatchChecker(int _parallelism) {
+		this(_parallelism, SMTManagerPool.shared());
+	}
+	
+	public EventConditionBatchChecker(int _parallelism, SMTManagerPool _pool) {
+		parallelism = Math.max(1, Math.min(DEFAULT_PARALLELISM, _parallelism));
+		pool = _pool;
+	}
+	
+	/**
+	 * parseParallelism reads parallelism requested by client
+     * @param value requested parallelism, may be null or malformed
+     * @return requested parallelism clamped to [1, DEFAULT_PARALLELISM], default one if value is not a number
+     */
+	public static int parseParallelism(String value) {
+		if (value == null) {
+			return DEFAULT_PARALLELISM;
+		}
+		try {
+			return Math.max(1, Math.min(DEFAULT_PARALLELISM, Integer.parseInt(value.trim())));
+		} catch (NumberFormatException e) {
+			return DEFAULT_PARALLELISM;
+		}
+	}
+	
+	/**
+	 * findUnsatisfiable checks conditions of given events
+     * @param events events we want to check
+     * @return names of events with unsatisfiable condition in the order of given list
+     */
+	public List<String> findUnsatisfiable(List<Event> events) throws Exception {
+		return findUnsatisfiable(events, new SolverBudget());
+	}
+	
+	/**
+	 * findUnsatisfiable checks conditions of given events within solver budget.
+	 * Events left unchecked when budget runs out are listed by getUnknown
+     * @param events events we want to check
+	 * @param budget solver budget of current request
+     * @return names of events with unsatisfiable condition in the order of given list
+     */
+	public List<String> findUnsatisfiable(List<Event> events, SolverBudget budget) throws Exception {
+		Boolean[] unsat = new Boolean[events.size()];
+		int workers = Math.max(1, Math.min(parallelism, events.size() / MIN_CHUNK_SIZE));
+		int chunkSize = (events.size() + workers - 1) / workers;
+		
+		if (workers == 1) {
+			try {
+				checkChunk(events, 0, events.size(), unsat, budget);
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				// Events of failed chunk keep unknown verdict
+				AnalysisMetrics.shared().increment(AnalysisMetrics.SOLVER_FAILURES);
+			}
+		} else {
+			List<Future<?>> chunks = new ArrayList<>();
+			for (int from = 0; from < events.size(); from += chunkSize) {
+				int begin = from;
+				int end = Math.min(events.size(), from + chunkSize);
+				chunks.add(EXECUTOR.submit(() -> {
+					checkChunk(events, begin, end, unsat, budget);
+					return null;
+				}));
+			}
+			try {
+				for (Future<?> chunk : chunks) {
+					try {
+						chunk.get();
+					} catch (ExecutionException e) {
+						AnalysisMetrics.shared().increment(AnalysisMetrics.SOLVER_FAILURES);
+					}
+				}
+			} finally {
+				for (Future<?> chunk : chunks) {
+					chunk.cancel(true);
+				}
+			}
+		}
+		
+		List<String> result = new ArrayList<>();
+		unknown.clear();
+		for (int i = 0; i < events.size(); i++) {
+			if (unsat[i] == null) {
+				unknown.add(events.get(i).getName());
+			} else if (unsat[i]) {
+				result.add(events.get(i).getName());
+			}
+		}
+		return result;
+	}
+	
+	public List<String> getUnknown() {
+		return unknown;
+	}
+	
+	/**
+	 * checkChunk checks events [from, to) in one leased solver context
+     * @param events all events of the batch
+	 * @param from first event index of chunk
+	 * @param to index after the last event of chunk
+	 * @param unsat verdicts we want to fill with data, null verdict is unknown
+	 * @param budget solver budget of current request
+     */
+	private void checkChunk(List<Event> events, int from, int to, Boolean[] unsat, SolverBudget budget) throws Exception {
+		try (SMTManager manager = pool.acquire(budget)) {
+			SMTExpressionParser parser = new SMTExpressionParser(manager);
+			PersistentAnalysisCache persistent = PersistentAnalysisCache.active();
+			for (int i = from; i < to; i++) {
+				if (manager.poisoned || budget.exhausted()) {
+					break;
+				}
+				try {
+					Expression condition = events.get(i).getWhen().getCondition();
+					String structuralKey = persistent == null ? null : SMTExpressionParser.structuralKey(condition);
+					Boolean stored = structuralKey == null ? null : persistent.getVerdict(structuralKey);
+					if (stored != null) {
+						unsat[i] = stored;
+						continue;
+					}
+					
+					unsat[i] = decide(parser, manager, condition, budget);
+					if (structuralKey != null && unsat[i] != null) {
+						persistent.putVerdict(structuralKey, unsat[i]);
+					}
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					// Malformed condition or solver failure, event is reported as unknown
+					AnalysisMetrics.shared().increment(AnalysisMetrics.SOLVER_FAILURES);
+				}
+			}
+		}
+	}
+
+	/**
+	 * decide checks one event condition with pre-solver or solver
+     * @return true if condition is unsatisfiable, null if it was not decided within budget
+     */
+	private Boolean decide(SMTExpressionParser parser, SMTManager manager, Expression condition, SolverBudget budget)
+			throws SolverException, InterruptedException {
+		Boolean presolved = IntervalPreSolver.isUnsat(condition);
+		AnalysisMetrics.shared().increment(presolved == null 
+				? AnalysisMetrics.PRESOLVER_UNDECIDED : AnalysisMetrics.PRESOLVER_DECIDED);
+		if (presolved != null) {
+			return presolved;
+		}
+		
+		BooleanFormula constraint = parser.parseSMT(condition);
+		if (SolverPortfolio.enabled()) {
+			return SolverPortfolio.shared().isUnsat(manager, List.of(constraint), budget);
+		}
+		
+		try (ProverEnvironment prover = manager.newProver()) {
+			prover.addConstraint(constraint);
+			return manager.isUnsat(prover, budget);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * IntervalPreSolver class documentation.
+ *
+ * This class is a IntervalPreSolver representation.
+ * It decides conjunctions of comparisons between attribute variables and integer constants
+ * without solver. Every comparison is turned into a difference bound "u - v <= c", where
+ * constant side is variable zero, and conjunction is unsatisfiable exactly when graph of
+ * these bounds has a negative cycle. Equality "x == y + c" is a pair of bounds
+ * "x - y <= c" and "y - x <= -c". Disequalities "x != c" are checked against the interval
+ * bounds give to x.
+ *
+ * Formulas outside of this fragment (disjunctions, negations, disequalities between
+ * variables, or disequalities of variables bound to other variables) are left to the prover
+ *
+ * @author Garaev Timur
+ */
+public class IntervalPreSolver {
+	/**
+	 * Atom is one comparison: left - right <= bound, or left != bound when distinct is set.
+	 * Null variable stands for constant zero
+	 */
+	public static final class Atom {
+		final String left;
+		final String right;
+		final long bound;
+		final boolean distinct;
+
+		Atom(String _left, String _right, long _bound, boolean _distinct) {
+			left = _left;
+			right = _right;
+			bound = _bound;
+			distinct = _distinct;
+		}
+	}
+
+	/**
+	 * atoms splits expression into comparisons if it belongs to the decidable fragment
+     * @param expr event condition
+     * @return comparisons of the conjunction, null if expression is outside of the fragment
+     */
+	public static Atom[] atoms(Expression expr) {
+		List<Atom> result = new ArrayList<>();
+		return collect(expr, result) ? result.toArray(new Atom[0]) : null;
+	}
+
+	/**
+	 * isUnsat decides condition alone
+     * @param expr event condition
+     * @return true if condition is unsatisfiable, null if it can not be decided without solver
+     */
+	public static Boolean isUnsat(Expression expr) {
+		Atom[] atoms = atoms(expr);
+		return atoms == null ? null : isUnsat(List.of(atoms));
+	}
+
+	/**
+	 * isUnsat decides conjunction of conditions
+     * @param conjuncts comparisons of every condition
+     * @return true if conjunction is unsatisfiable, null if it can not be decided without solver
+     */
+	public static Boolean isUnsat(List<Atom[]> conjuncts) {
+		Map<String, Integer> index = new HashMap<>();
+		index.put(null, 0);
+		List<long[]> edges = new ArrayList<>();
+		Map<String, Set<Long>> excluded = new HashMap<>();
+		boolean related = false;
+
+		for (Atom[] atoms : conjuncts) {
+			for (Atom atom : atoms) {
+				int u = index.computeIfAbsent(atom.left, key -> index.size());
+				int v = index.computeIfAbsent(atom.right, key -> index.size());
+				if (atom.distinct) {
+					excluded.computeIfAbsent(atom.left, key -> new HashSet<>()).add(atom.bound);
+				} else {
+					edges.add(new long[] { u, v, atom.bound });
+					related |= atom.left != null && atom.right != null;
+				}
+			}
+		}
+
+		// Bellman-Ford from virtual source connected to every variable with zero weight
+		int n = index.size();
+		long[] distance = new long[n];
+		for (int round = 0; round < n; round++) {
+			boolean relaxed = false;
+			for (long[] edge : edges) {
+				// u - v <= c is edge v -> u of weight c
+				int u = (int) edge[0];
+				int v = (int) edge[1];
+				if (distance[v] + edge[2] < distance[u]) {
+					distance[u] = distance[v] + edge[2];
+					relaxed = true;
+				}
+			}
+			if (!relaxed) {
+				return excluded.isEmpty() ? Boolean.FALSE : checkExcluded(excluded, edges, index, related);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * checkExcluded checks disequalities of satisfiable bounds. It is exact only when
+	 * variables do not bound each other, so every variable can take any value of its interval
+     */
+	private static Boolean checkExcluded(Map<String, Set<Long>> excluded, List<long[]> edges,
+			Map<String, Integer> index, boolean related) {
+		if (related) {
+			return null;
+		}
+
+		long[] low = new long[index.size()];
+		long[] high = new long[index.size()];
+		Arrays.fill(low, Long.MIN_VALUE);
+		Arrays.fill(high, Long.MAX_VALUE);
+		for (long[] edge : edges) {
+			if (edge[1] == 0) {
+				high[(int) edge[0]] = Math.min(high[(int) edge[0]], edge[2]);
+			} else {
+				low[(int) edge[1]] = Math.max(low[(int) edge[1]], -edge[2]);
+			}
+		}
+
+		for (Map.Entry<String, Set<Long>> entry : excluded.entrySet()) {
+			int x = index.get(entry.getKey());
+			if (low[x] == Long.MIN_VALUE || high[x] == Long.MAX_VALUE) {
+				continue;
+			}
+			long inside = entry.getValue().stream().filter(value -> value >= low[x] && value <= high[x]).count();
+			if (inside == high[x] - low[x] + 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean collect(Expression expr, List<Atom> result) {
+		if (expr instanceof AndImpl) {
+			return collect(((AndImpl)expr).getLeft(), result) && collect(((AndImpl)expr).getRight(), result);
+		} else if (expr instanceof ComparisonImpl) {
+			ComparisonImpl comparison = (ComparisonImpl)expr;
+			return compare(comparison.getOp(), comparison.getLeft(), comparison.getRight(), result);
+		} else if (expr instanceof EqualityImpl && "==".equals(((EqualityImpl)expr).getOp())) {
+			EqualityImpl equality = (EqualityImpl)expr;
+			return compare("<=", equality.getLeft(), equality.getRight(), result)
+					&& compare(">=", equality.getLeft(), equality.getRight(), result);
+		} else if (expr instanceof EqualityImpl && "!=".equals(((EqualityImpl)expr).getOp())) {
+			EqualityImpl equality = (EqualityImpl)expr;
+			return distinct(equality.getLeft(), equality.getRight(), result);
+		}
+		return false;
+	}
+
+	private static boolean compare(String op, Expression left, Expression right, List<Atom> result) {
+		if (!isTerm(left) || !isTerm(right)) {
+			return false;
+		}
+		String x = variable(left);
+		String y = variable(right);
+		// x - y <op> c, where c moves constants of both sides to the right
+		long c = constant(right) - constant(left);
+
+		switch (op) {
+			case "<":
+				result.add(new Atom(x, y, c - 1, false));
+				return true;
+			case "<=":
+				result.add(new Atom(x, y, c, false));
+				return true;
+			case ">":
+				result.add(new Atom(y, x, -c - 1, false));
+				return true;
+			case ">=":
+				result.add(new Atom(y, x, -c, false));
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static boolean distinct(Expression left, Expression right, List<Atom> result) {
+		if (!isTerm(left) || !isTerm(right)) {
+			return false;
+		}
+		String x = variable(left);
+		String y = variable(right);
+		if (x != null && y != null) {
+			if (!x.equals(y)) {
+				return false;
+			}
+			// x != x never holds: 0 <= -1
+			result.add(new Atom(null, null, -1, false));
+		} else if (x == null && y == null) {
+			result.add(new Atom(null, null, constant(left) != constant(right) ? 0 : -1, false));
+		} else {
+			result.add(new Atom(x != null ? x : y, null, x != null ? constant(right) : constant(left), true));
+		}
+		return true;
+	}
+
+	private static boolean isTerm(Expression expr) {
+		return expr instanceof VariableImpl || expr instanceof IntConstantImpl;
+	}
+
+	private static String variable(Expression expr) {
+		return expr instanceof VariableImpl ? ((VariableImpl)expr).getValue().getAttr().getName() : null;
+	}
+
+	private static long constant(Expression expr) {
+		return expr instanceof IntConstantImpl ? ((IntConstantImpl)expr).getValue() : 0;
+	}
+}
@@ -0,0 +1,87 @@
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.emf.ecore.resource.Resource;
+import org.sosy_lab.java_smt.api.BooleanFormula;
+import org.sosy_lab.java_smt.api.NumeralFormula.IntegerFormula;
+
+/**
+ * SMTFormulaCache class documentation.
+ *
+ * This class is a SMTFormulaCache representation.
+ * It keeps formulas already built in one solver context, so repeated analyses 
+ * of the same model do not parse conditions again. Formulas are looked up by 
+ * Expression identity first and by structural key of expression after that, 
+ * variables are interned by attribute name
+ *
+ * Identity entries of a resource are dropped once its document version changes, 
+ * structural entries depend on expression content only and stay valid.
+ * Expressions outside of any resource (copies made by ModelSnapshot) are looked up
+ * by structural key only, as every snapshot brings new copies
+ *
+ * @author Garaev Timur
+ */
+public class SMTFormulaCache {
+	private static final int MAX_STRUCTURAL_ENTRIES = Integer.getInteger("tgen.smt.cache.size", 100_000);
+	
+	// Last known document version of every resource, shared by all contexts
+	private static final Map<String, Integer> versions = new ConcurrentHashMap<>();
+	
+	private final Map<String, Integer> seenVersions = new HashMap<>();
+	private final Map<String, IdentityHashMap<Expression, BooleanFormula>> byIdentity = new HashMap<>();
+	private final Map<String, BooleanFormula> byStructure = new HashMap<>();
+	
+	final Map<String, IntegerFormula> variables = new HashMap<>();
+	
+	/**
+	 * track registers document version of resource analysis is going to run on
+     * @param uri resource uri
+	 * @param version current document version
+     */
+	public static void track(String uri, Integer version) {
+		if (uri != null && version != null) {
+			versions.put(uri, version);
+		}
+	}
+	
+	/**
+	 * identityCache gives cache of expressions belonging to given resource, 
+	 * dropping it if resource has been changed since last lookup
+     * @param expr expression we want to look up
+     * @return identity cache of expression's resource
+     */
+	IdentityHashMap<Expression, BooleanFormula> identityCache(Expression expr) {
+		Resource resource = expr.eResource();
+		if (resource == null) {
+			return new IdentityHashMap<>();
+		}
+		String uri = resource.getURI() == null ? "" : resource.getURI().toString();
+		Integer version = versions.get(uri);
+		
+		if (version != null && !version.equals(seenVersions.get(uri))) {
+			seenVersions.put(uri, version);
+			byIdentity.remove(uri);
+		}
+		return byIdentity.computeIfAbsent(uri, key -> new IdentityHashMap<>());
+	}
+	
+	BooleanFormula getStructural(String key) {
+		return byStructure.get(key);
+	}
+	
+	void putStructural(String key, BooleanFormula formula) {
+		if (byStructure.size() >= MAX_STRUCTURAL_ENTRIES) {
+			byStructure.clear();
+		}
+		byStructure.put(key, formula);
+	}
+	
+	public void clear() {
+		seenVersions.clear();
+		byIdentity.clear();
+		byStructure.clear();
+		variables.clear();
+	}
+}
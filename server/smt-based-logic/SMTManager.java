@@ -1,3 +1,7 @@
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.sosy_lab.common.ShutdownManager;
 import org.sosy_lab.common.ShutdownNotifier;
 import org.sosy_lab.common.configuration.Configuration;
 import org.sosy_lab.common.log.BasicLogManager;
@@ -7,26 +11,50 @@ import org.sosy_lab.java_smt.SolverContextFactory.Solvers;
 import org.sosy_lab.java_smt.api.BooleanFormulaManager;
 import org.sosy_lab.java_smt.api.FormulaManager;
 import org.sosy_lab.java_smt.api.IntegerFormulaManager;
+import org.sosy_lab.java_smt.api.ProverEnvironment;
 import org.sosy_lab.java_smt.api.SolverContext;
+import org.sosy_lab.java_smt.api.SolverContext.ProverOptions;
+import org.sosy_lab.java_smt.api.SolverException;
 
-public class SMTManager {
+public class SMTManager implements AutoCloseable {
+	private static final Solvers CONFIGURED_SOLVER = parseSolver(System.getProperty("tgen.smt.solver"));
+	
 	Configuration config;
 	LogManager logger;
 	ShutdownNotifier notifier;
+	ShutdownManager shutdownManager;
 	
+	Solvers solver;
 	SolverContext context;
 	
 	BooleanFormulaManager bmgr;
 	IntegerFormulaManager imgr;
 	
+	// Formulas belong to context they were built in, so the cache lives as long as context does
+	SMTFormulaCache formulaCache = new SMTFormulaCache();
+	
+	SMTManagerPool pool;
+	boolean leased;
+	long lastUsed;
+	// Every prover has its own shutdown manager, child of context one, so one query can be stopped alone
+	Map<ProverEnvironment, ShutdownManager> provers = new IdentityHashMap<>();
+	// Shutdown of context can not be undone, such context is never given to anyone again
+	boolean poisoned;
+	
 	public SMTManager() throws Exception{
+		this(CONFIGURED_SOLVER);
+	}
+	
+	public SMTManager(Solvers _solver) throws Exception{
+		solver = _solver;
 		try {
 			config = Configuration.defaultConfiguration();
 		    logger = BasicLogManager.create(config);
-		    notifier = ShutdownNotifier.createDummy();
+		    shutdownManager = ShutdownManager.create();
+		    notifier = shutdownManager.getNotifier();
 		    
 		    context = SolverContextFactory.createSolverContext(
-		            config, logger, notifier, Solvers.SMTINTERPOL);
+		            config, logger, notifier, solver);
 		    
 		    FormulaManager fmgr = context.getFormulaManager();
 	
@@ -35,7 +63,169 @@ public class SMTManager {
 		    
 		    
 		} catch (Exception e) {
-			throw new Exception("Invalid solver context: " + e.getMessage());
+			throw new Exception("Invalid solver context: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * configuredSolver gives solver backend chosen with tgen.smt.solver system property,
+	 * SMTInterpol by default
+     * @return solver backend
+     */
+	public static Solvers configuredSolver() {
+		return CONFIGURED_SOLVER;
+	}
+	
+	/**
+	 * parseSolver reads solver backend name, unknown name is reported and SMTInterpol is used instead,
+	 * so a typo in configuration does not stop the language server
+     * @param name backend name, case insensitive, may be null
+     * @return solver backend
+     */
+	public static Solvers parseSolver(String name) {
+		if (name == null || name.isBlank()) {
+			return Solvers.SMTINTERPOL;
+		}
+		try {
+			return Solvers.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown solver backend " + name.trim() + ", " + Solvers.SMTINTERPOL + " is used");
+			return Solvers.SMTINTERPOL;
+		}
+	}
+	
+	/**
+	 * newProver opens prover environment bound to this context, with its own shutdown manager.
+	 * Provers which are still open when context goes back to the pool are closed there
+     * @param options prover options
+     * @return new prover environment
+     */
+	public ProverEnvironment newProver(ProverOptions... options) {
+		ShutdownManager proverShutdown = ShutdownManager.createWithParent(notifier);
+		ProverEnvironment prover = context.newProverEnvironment(proverShutdown.getNotifier(), options);
+		provers.put(prover, proverShutdown);
+		AnalysisMetrics.shared().increment(AnalysisMetrics.PROVERS_CREATED);
+		return prover;
+	}
+	
+	/**
+	 * shutdownManager gives shutdown manager stopping given prover alone
+     * @param prover prover environment opened by this context
+     * @return shutdown manager of prover, context one for provers opened elsewhere
+     */
+	ShutdownManager shutdownManager(ProverEnvironment prover) {
+		ShutdownManager proverShutdown = provers.get(prover);
+		return proverShutdown == null ? shutdownManager : proverShutdown;
+	}
+	
+	/**
+	 * isInterrupted tells if given prover was shut down, alone or with the whole context.
+	 * Such prover can not answer anymore and has to be replaced
+     * @param prover prover environment opened by this context
+     * @return true if prover was shut down
+     */
+	public boolean isInterrupted(ProverEnvironment prover) {
+		return shutdownManager(prover).getNotifier().shouldShutdown();
+	}
+	
+	/**
+	 * closeProver closes prover environment before context goes back to the pool
+     * @param prover prover environment opened by this context
+     */
+	public void closeProver(ProverEnvironment prover) {
+		release(prover, provers.remove(prover));
+	}
+	
+	/**
+	 * release closes prover and shuts its shutdown manager down, which unregisters it 
+	 * from notifier of context, so long-lived context does not collect listeners of closed provers
+     * @param prover prover environment opened by this context
+	 * @param proverShutdown shutdown manager of prover, may be null
+     */
+	private static void release(ProverEnvironment prover, ShutdownManager proverShutdown) {
+		prover.close();
+		if (proverShutdown != null) {
+			proverShutdown.requestShutdown("Prover closed");
+		}
+	}
+	
+	/**
+	 * isUnsat checks constraints of given prover, all solver calls go through it 
+	 * so their number and latency are recorded in AnalysisMetrics
+     * @param prover prover environment opened by this context
+     * @return true if constraints of prover are unsatisfiable
+     */
+	public boolean isUnsat(ProverEnvironment prover) throws SolverException, InterruptedException {
+		long start = System.nanoTime();
+		try {
+			return prover.isUnsat();
+		} finally {
+			AnalysisMetrics.shared().recordUnsat(System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * isUnsat checks constraints of given prover within request budget.
+	 * Query running out of its own time stops only its prover, which the caller replaces
+	 * (see isInterrupted). Request running out of budget shuts down context, which is poisoned then
+     * @param prover prover environment opened by this context
+	 * @param budget solver budget of current request
+     * @return true if constraints are unsatisfiable, null if the answer is unknown
+     */
+	public Boolean isUnsat(ProverEnvironment prover, SolverBudget budget) throws SolverException {
+		if (poisoned || budget.exhausted() || isInterrupted(prover)) {
+			return null;
+		}
+		
+		SolverBudget.Watch watch = budget.watch(shutdownManager, shutdownManager(prover));
+		try {
+			return isUnsat(prover);
+		} catch (InterruptedException e) {
+			if (!isInterrupted(prover)) {
+				// Thread itself was interrupted in the middle of a native call
+				poisoned = true;
+				Thread.currentThread().interrupt();
+			} else if (watch.timedOut()) {
+				// Prover stopped for other reasons, like a lost portfolio race, is not a timeout
+				AnalysisMetrics.shared().increment(AnalysisMetrics.QUERY_TIMEOUTS);
+			}
+			return null;
+		} finally {
+			watch.close();
+			if (notifier.shouldShutdown()) {
+				poisoned = true;
+			}
+		}
+	}
+	
+	/**
+	 * reset prepares context for the next lease
+     */
+	void reset() {
+		for (Map.Entry<ProverEnvironment, ShutdownManager> entry : provers.entrySet()) {
+			release(entry.getKey(), entry.getValue());
+		}
+		provers.clear();
+	}
+	
+	/**
+	 * dispose releases native and solver resources of this context
+     */
+	void dispose() {
+		reset();
+		context.close();
+	}
+	
+	/**
+	 * close returns leased context to its pool, standalone context is disposed
+     */
+	@Override
+	public void close() {
+		if (pool == null) {
+			dispose();
+		} else if (leased) {
+			leased = false;
+			pool.release(this);
 		}
 	}
 }
@@ -0,0 +1,153 @@
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.sosy_lab.java_smt.SolverContextFactory.Solvers;
+
+/**
+ * SMTManagerPool class documentation.
+ *
+ * This class is a SMTManagerPool representation.
+ * It keeps a bounded set of warm solver contexts shared between LSP requests, 
+ * so requests lease an already created context instead of paying for solver startup.
+ * Every solver backend has its own pool
+ *
+ * Pool size, idle timeout and the longest wait for a free context can be set up with 
+ * tgen.smt.pool.size, tgen.smt.pool.idleMillis and tgen.smt.pool.acquireMillis system properties, 
+ * backend of shared pool with tgen.smt.solver
+ *
+ * @author Garaev Timur
+ */
+public class SMTManagerPool {
+	private static final int POOL_SIZE = Integer.getInteger("tgen.smt.pool.size", Runtime.getRuntime().availableProcessors());
+	private static final long IDLE_MILLIS = Long.getLong("tgen.smt.pool.idleMillis", 60_000L);
+	private static final long ACQUIRE_MILLIS = Long.getLong("tgen.smt.pool.acquireMillis", 30_000L);
+	
+	// How often waiting lessee checks budget of its request
+	private static final long POLL_MILLIS = 20;
+	
+	private static final Map<Solvers, SMTManagerPool> POOLS = new ConcurrentHashMap<>();
+	
+	private final Solvers solver;
+	private final long idleMillis;
+	private final Semaphore leases;
+	private final ArrayDeque<SMTManager> idle = new ArrayDeque<>();
+	
+	public SMTManagerPool(int maxSize, long _idleMillis) {
+		this(SMTManager.configuredSolver(), maxSize, _idleMillis);
+	}
+	
+	public SMTManagerPool(Solvers _solver, int maxSize, long _idleMillis) {
+		solver = _solver;
+		idleMillis = _idleMillis;
+		leases = new Semaphore(Math.max(1, maxSize), true);
+	}
+	
+	public static SMTManagerPool shared() {
+		return of(SMTManager.configuredSolver());
+	}
+	
+	public static SMTManagerPool of(Solvers solver) {
+		return POOLS.computeIfAbsent(solver, key -> new SMTManagerPool(key, POOL_SIZE, IDLE_MILLIS));
+	}
+	
+	public Solvers getSolver() {
+		return solver;
+	}
+	
+	/**
+	 * acquire leases solver context, waits while all contexts are leased.
+	 * Lease must be returned with SMTManager.close()
+     * @return leased context
+     */
+	public SMTManager acquire() throws Exception {
+		return acquire(new SolverBudget(0, 0, () -> false));
+	}
+	
+	/**
+	 * acquire leases solver context, waits while all contexts are leased 
+	 * until request budget is exhausted or acquire timeout passes.
+	 * Lease must be returned with SMTManager.close()
+     * @param budget solver budget of current request
+     * @return leased context
+     */
+	public SMTManager acquire(SolverBudget budget) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACQUIRE_MILLIS);
+		while (!leases.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (budget.exhausted()) {
+				throw new CancellationException("Solver budget exhausted while waiting for " + solver + " context");
+			}
+			if (System.nanoTime() - deadline > 0) {
+				throw new TimeoutException("No " + solver + " context became free within " + ACQUIRE_MILLIS + " ms");
+			}
+		}
+		return lease();
+	}
+	
+	/**
+	 * tryAcquire leases solver context only if one is free at once, so caller already
+	 * holding contexts never waits for them to be released.
+	 * Lease must be returned with SMTManager.close()
+     * @return leased context, null if all contexts are leased
+     */
+	public SMTManager tryAcquire() throws Exception {
+		return leases.tryAcquire() ? lease() : null;
+	}
+	
+	private SMTManager lease() throws Exception {
+		try {
+			SMTManager manager;
+			synchronized (this) {
+				evictIdle(System.currentTimeMillis());
+				manager = idle.pollFirst();
+			}
+			if (manager == null) {
+				manager = new SMTManager(solver);
+				manager.pool = this;
+			}
+			manager.leased = true;
+			return manager;
+		} catch (Exception e) {
+			leases.release();
+			throw e;
+		}
+	}
+	
+	/**
+	 * release resets context and puts it back to the pool
+     * @param manager context returned by its lessee
+     */
+	void release(SMTManager manager) {
+		try {
+			if (manager.poisoned || manager.notifier.shouldShutdown()) {
+				manager.dispose();
+				return;
+			}
+			manager.reset();
+			synchronized (this) {
+				manager.lastUsed = System.currentTimeMillis();
+				idle.addFirst(manager);
+				evictIdle(manager.lastUsed);
+			}
+		} catch (Exception e) {
+			manager.dispose();
+		} finally {
+			leases.release();
+		}
+	}
+	
+	/**
+	 * evictIdle disposes contexts nobody leased for longer than idle timeout.
+	 * Most recently used contexts are kept at the head, so the tail is the oldest one
+     * @param now current time in milliseconds
+     */
+	private void evictIdle(long now) {
+		while (!idle.isEmpty() && now - idle.peekLast().lastUsed > idleMillis) {
+			idle.pollLast().dispose();
+		}
+	}
+}
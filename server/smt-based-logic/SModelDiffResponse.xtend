@@ -0,0 +1,29 @@
+import org.eclipse.sprotty.SModelRoot
+import java.util.HashMap
+
+/**
+ * SModelDiffResponse class documentation.
+ *
+ * This class is a SModelDiffResponse representation.
+ * It carries either the whole diagram, when client has no diagram of the given revision,
+ * or changes made to diagram since the revision client already has
+ *
+ * @author Garaev Timur
+ */
+class SModelDiffResponse {
+	val Boolean isOk
+	val String message
+	val int revision
+	val SModelRoot root
+	val SModelDiff diff
+	val HashMap<String, String> data
+	
+	new (boolean status, String _message, int _revision, SModelRoot _root, SModelDiff _diff, HashMap<String, String> _data) {
+		this.isOk = status
+		this.message = _message
+		this.revision = _revision
+		this.root = _root
+		this.diff = _diff
+		this.data = _data
+	}
+}
@@ -1,16 +1,46 @@
 import org.eclipse.sprotty.SModelRoot
+import com.google.gson.JsonElement
 import java.util.HashMap
+import java.util.List
 
 class SModelResponse {
 	val Boolean isOk
 	val String message
-	val SModelRoot root
+	// Generated SModelRoot, or its JSON when response is loaded from persistent cache
+	val Object root
 	val HashMap<String, String> data
+	// String table of element identifiers, null when identifiers are sent as is
+	val List<String> strings
 	
 	new (boolean status, String _message, SModelRoot _root, HashMap<String, String> _data) {
+		this(status, _message, _root, _data, null)
+	}
+	
+	new (boolean status, String _message, SModelRoot _root, HashMap<String, String> _data, List<String> _strings) {
+		this.isOk = status
+		this.message = _message
+		this.root = _root
+		this.data = _data
+		this.strings = _strings
+	}
+	
+	new (boolean status, String _message, JsonElement _root, HashMap<String, String> _data, List<String> _strings) {
 		this.isOk = status
 		this.message = _message
 		this.root = _root
 		this.data = _data
+		this.strings = _strings
+	}
+	
+	def getRoot() {
+		return root
+	}
+	
+	def getData() {
+		return data
+	}
+	
+	def getStrings() {
+		return strings
 	}
 }
\ No newline at end of file
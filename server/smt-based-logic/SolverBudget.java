@@ -0,0 +1,159 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.sosy_lab.common.ShutdownManager;
+
+/**
+ * SolverBudget class documentation.
+ *
+ * This class is a SolverBudget representation.
+ * It limits solver time of one request: every isUnsat call may take at most
+ * query budget and all calls together must finish before request deadline.
+ * Request is also stopped as soon as client cancels it.
+ *
+ * Query running out of its own time is interrupted through shutdown manager of its prover,
+ * so solver context stays usable for the following queries. Request running out of budget
+ * or cancelled by client shuts down solver contexts of its running queries.
+ * One watchdog task per request checks running queries, it stops while no query runs.
+ *
+ * Budgets are set up with tgen.smt.queryTimeoutMillis and tgen.smt.requestTimeoutMillis
+ * system properties. Check of the whole model has its own request limit, 
+ * tgen.smt.fullCheckTimeoutMillis, which is not set by default, as such check is expected
+ * to run long and context shut down on exhaustion would be dropped by its pool.
+ * Non-positive value means no limit
+ *
+ * @author Garaev Timur
+ */
+public class SolverBudget {
+	private static final long QUERY_MILLIS = Long.getLong("tgen.smt.queryTimeoutMillis", 2_000);
+	private static final long REQUEST_MILLIS = Long.getLong("tgen.smt.requestTimeoutMillis", 10_000);
+	private static final long FULL_CHECK_MILLIS = Long.getLong("tgen.smt.fullCheckTimeoutMillis", 0);
+
+	// How often running query checks its deadlines and cancellation of request
+	private static final long POLL_MILLIS = 20;
+
+	private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, task -> {
+		Thread thread = new Thread(task, "tgen-solver-watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		WATCHDOG.setRemoveOnCancelPolicy(true);
+	}
+
+	private final long queryNanos;
+	private final long deadline;
+	private final BooleanSupplier cancelled;
+
+	private final Set<Watch> running = ConcurrentHashMap.newKeySet();
+	// Watchdog task of this request, null while it is stopped
+	private ScheduledFuture<?> pollTask;
+
+	/**
+	 * Watch is one running solver query, closed once query finishes
+	 */
+	public final class Watch implements AutoCloseable {
+		private final ShutdownManager context;
+		private final ShutdownManager query;
+		private final long queryDeadline;
+		// Set once watchdog stopped the query for running out of its own time
+		private volatile boolean timedOut;
+
+		private Watch(ShutdownManager _context, ShutdownManager _query, long _queryDeadline) {
+			context = _context;
+			query = _query;
+			queryDeadline = _queryDeadline;
+		}
+
+		public boolean timedOut() {
+			return timedOut;
+		}
+
+		@Override
+		public void close() {
+			running.remove(this);
+		}
+	}
+
+	public SolverBudget() {
+		this(() -> false);
+	}
+
+	public SolverBudget(BooleanSupplier _cancelled) {
+		this(QUERY_MILLIS, REQUEST_MILLIS, _cancelled);
+	}
+
+	/**
+	 * forFullCheck starts budget of request checking the whole model
+     * @param cancelled tells if client cancelled request
+     * @return budget limited by tgen.smt.fullCheckTimeoutMillis, unlimited by default
+     */
+	public static SolverBudget forFullCheck(BooleanSupplier cancelled) {
+		return new SolverBudget(QUERY_MILLIS, FULL_CHECK_MILLIS, cancelled);
+	}
+
+	/**
+	 * SolverBudget starts request budget
+     * @param queryMillis time limit of one isUnsat call
+	 * @param requestMillis time limit of all solver calls of request
+	 * @param _cancelled tells if client cancelled request
+     */
+	public SolverBudget(long queryMillis, long requestMillis, BooleanSupplier _cancelled) {
+		queryNanos = TimeUnit.MILLISECONDS.toNanos(queryMillis);
+		deadline = requestMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestMillis) : 0;
+		cancelled = _cancelled;
+	}
+
+	/**
+	 * exhausted tells if request has to stop
+     * @return true if request is cancelled or its deadline passed
+     */
+	public boolean exhausted() {
+		return cancelled.getAsBoolean() || (deadline != 0 && System.nanoTime() - deadline > 0);
+	}
+
+	/**
+	 * watch starts watching one solver query
+     * @param context shutdown manager of solver context, used once request budget is exhausted
+	 * @param query shutdown manager of prover running the query, used once query runs out of time
+     * @return watch to be closed once query finishes
+     */
+	Watch watch(ShutdownManager context, ShutdownManager query) {
+		Watch watch = new Watch(context, query, queryNanos > 0 ? System.nanoTime() + queryNanos : 0);
+		synchronized (this) {
+			running.add(watch);
+			if (pollTask == null) {
+				pollTask = WATCHDOG.scheduleAtFixedRate(this::poll, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		}
+		return watch;
+	}
+
+	/**
+	 * poll interrupts running queries which ran out of time, or all of them once request 
+	 * budget is exhausted. Task stops itself when no query runs and the next query starts it again
+     */
+	private synchronized void poll() {
+		if (running.isEmpty()) {
+			pollTask.cancel(false);
+			pollTask = null;
+			return;
+		}
+
+		boolean exhausted = exhausted();
+		long now = System.nanoTime();
+		for (Watch watch : running) {
+			if (exhausted) {
+				watch.context.requestShutdown("Solver budget exhausted");
+			} else if (watch.queryDeadline != 0 && now - watch.queryDeadline > 0) {
+				watch.timedOut = true;
+				watch.query.requestShutdown("Solver query timed out");
+			}
+		}
+	}
+}
@@ -0,0 +1,332 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.sosy_lab.common.ShutdownManager;
+import org.sosy_lab.common.configuration.InvalidConfigurationException;
+import org.sosy_lab.java_smt.SolverContextFactory.Solvers;
+import org.sosy_lab.java_smt.api.BooleanFormula;
+import org.sosy_lab.java_smt.api.FormulaManager;
+import org.sosy_lab.java_smt.api.ProverEnvironment;
+
+/**
+ * SolverPortfolio class documentation.
+ *
+ * This class is a SolverPortfolio representation.
+ * It races one satisfiability query on several solver backends: formulas are translated
+ * into a context leased from pool of every backend, the first answer is taken
+ * and provers of the other backends are shut down, so their contexts stay usable.
+ * Backend of the caller's own context races on that context, other backends take
+ * only contexts free at once, so a race never waits for contexts held by its caller.
+ * When no chosen backend can be leased, the query runs on the caller's context alone.
+ *
+ * Wins of every backend are counted. Once one backend wins almost every race,
+ * queries go to it alone and only every RERACE_PERIOD-th query is raced again,
+ * so the statistics keep up with the model being edited.
+ *
+ * Portfolio is enabled by listing backends in tgen.smt.portfolio system property,
+ * for example "SMTINTERPOL,PRINCESS,Z3". Backend whose native library or configuration
+ * is missing is skipped from then on
+ *
+ * @author Garaev Timur
+ */
+public class SolverPortfolio {
+	private static final SolverPortfolio SHARED = new SolverPortfolio(parseBackends(
+			System.getProperty("tgen.smt.portfolio", "")));
+
+	// Races needed before the leader is trusted, and its share of wins that makes other backends idle
+	private static final int MIN_RACES = 50;
+	private static final double LEADER_SHARE = 0.9;
+	private static final int RERACE_PERIOD = 20;
+
+	private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(task -> {
+		Thread thread = new Thread(task, "tgen-portfolio");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final List<Solvers> backends;
+	private final Map<Solvers, LongAdder> wins = new EnumMap<>(Solvers.class);
+	private final Set<Solvers> unavailable = ConcurrentHashMap.newKeySet();
+	private final LongAdder races = new LongAdder();
+	private final AtomicLong queries = new AtomicLong();
+
+	/**
+	 * Racer is one backend of a running race
+	 */
+	private static class Racer {
+		final Solvers solver;
+		final SMTManager manager;
+		// Racer runs on context of the caller, which is neither leased nor closed by the race
+		final boolean borrowed;
+		final List<BooleanFormula> constraints;
+		ShutdownManager shutdown;
+		boolean cancelled;
+		boolean finished;
+
+		Racer(Solvers _solver, SMTManager _manager, boolean _borrowed, List<BooleanFormula> _constraints) {
+			solver = _solver;
+			manager = _manager;
+			borrowed = _borrowed;
+			constraints = _constraints;
+		}
+
+		/**
+		 * start registers shutdown manager of prover racer runs on
+		 * @param _shutdown shutdown manager of the prover alone
+		 * @return false if race is already over
+		 */
+		synchronized boolean start(ShutdownManager _shutdown) {
+			shutdown = _shutdown;
+			return !cancelled;
+		}
+
+		/**
+		 * cancel stops prover of backend which lost the race, its context stays usable
+		 */
+		synchronized void cancel() {
+			cancelled = true;
+			if (!finished && shutdown != null) {
+				shutdown.requestShutdown("Portfolio race lost");
+			}
+		}
+
+		synchronized void finish() {
+			finished = true;
+			notifyAll();
+		}
+
+		/**
+		 * awaitFinish waits until racer leaves its context, so the caller may use it again
+		 */
+		synchronized void awaitFinish() {
+			boolean interrupted = false;
+			while (!finished) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public SolverPortfolio(List<Solvers> _backends) {
+		backends = _backends;
+		for (Solvers solver : backends) {
+			wins.put(solver, new LongAdder());
+		}
+	}
+
+	public static SolverPortfolio shared() {
+		return SHARED;
+	}
+
+	public static boolean enabled() {
+		return SHARED.backends.size() > 1;
+	}
+
+	/**
+	 * isUnsat checks conjunction of formulas on the backends chosen for the query
+     * @param source context formulas were built in
+	 * @param constraints formulas of query
+	 * @param budget solver budget of current request
+     * @return true if conjunction is unsatisfiable, null if no backend answered within budget
+     */
+	public Boolean isUnsat(SMTManager source, List<BooleanFormula> constraints, SolverBudget budget)
+			throws InterruptedException {
+		if (budget.exhausted()) {
+			return null;
+		}
+
+		CompletionService<Map.Entry<Solvers, Boolean>> completion = new ExecutorCompletionService<>(EXECUTOR);
+		
+		// Every query is translated before any racer starts, as source context may be one of them
+		List<Racer> racers = new ArrayList<>();
+		for (Solvers solver : chooseBackends()) {
+			Racer racer = lease(solver, source, constraints);
+			if (racer != null) {
+				racers.add(racer);
+			}
+		}
+		if (racers.isEmpty()) {
+			// No chosen backend could be leased, source context still decides the query alone
+			racers.add(new Racer(source.solver, source, true, constraints));
+		}
+		boolean raced = racers.size() > 1;
+		if (raced) {
+			races.increment();
+		}
+
+		try {
+			for (Racer racer : racers) {
+				completion.submit(() -> run(racer, budget));
+			}
+
+			for (int i = 0; i < racers.size(); i++) {
+				try {
+					Map.Entry<Solvers, Boolean> answer = completion.take().get();
+					if (answer != null) {
+						if (raced) {
+							wins.get(answer.getKey()).increment();
+							AnalysisMetrics.shared().increment("solver.portfolio.wins." + answer.getKey().name());
+						}
+						return answer.getValue();
+					}
+				} catch (ExecutionException e) {
+					// Backend failed on this query, the others may still answer
+					AnalysisMetrics.shared().increment(AnalysisMetrics.SOLVER_FAILURES);
+				}
+			}
+			return null;
+		} finally {
+			for (Racer racer : racers) {
+				racer.cancel();
+			}
+			for (Racer racer : racers) {
+				if (racer.borrowed) {
+					racer.awaitFinish();
+				}
+			}
+		}
+	}
+
+	/**
+	 * lease gets context of given backend and translates query into it on the calling thread,
+	 * as source context must not be touched from racing threads.
+	 * Backend of source context races on the source itself, context of other backend is taken
+	 * only if one is free at once, since the caller may hold the last one
+     * @param solver backend
+	 * @param source context formulas were built in
+	 * @param constraints formulas of query
+     * @return racer ready to run, null if backend can not be used for this query
+     */
+	private Racer lease(Solvers solver, SMTManager source, List<BooleanFormula> constraints) {
+		if (unavailable.contains(solver)) {
+			return null;
+		}
+		if (solver == source.solver) {
+			return new Racer(solver, source, true, constraints);
+		}
+
+		SMTManager manager;
+		try {
+			manager = SMTManagerPool.of(solver).tryAcquire();
+		} catch (Exception | UnsatisfiedLinkError e) {
+			if (isPermanent(e) && unavailable.add(solver)) {
+				// Missing native libraries and configuration do not go away, backend is skipped from now on
+				System.err.println("Solver backend " + solver + " is not available: " + e.getMessage());
+			}
+			AnalysisMetrics.shared().increment(AnalysisMetrics.SOLVER_FAILURES);
+			return null;
+		}
+		if (manager == null) {
+			return null;
+		}
+
+		try {
+			FormulaManager target = manager.context.getFormulaManager();
+			FormulaManager from = source.context.getFormulaManager();
+			List<BooleanFormula> translated = new ArrayList<>();
+			for (BooleanFormula constraint : constraints) {
+				translated.add(target.translateFrom(constraint, from));
+			}
+			return new Racer(solver, manager, false, translated);
+		} catch (Exception e) {
+			manager.close();
+			AnalysisMetrics.shared().increment(AnalysisMetrics.SOLVER_FAILURES);
+			return null;
+		}
+	}
+
+	private static boolean isPermanent(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof UnsatisfiedLinkError || cause instanceof InvalidConfigurationException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Map.Entry<Solvers, Boolean> run(Racer racer, SolverBudget budget) throws Exception {
+		ProverEnvironment prover = null;
+		try {
+			prover = racer.manager.newProver();
+			if (!racer.start(racer.manager.shutdownManager(prover))) {
+				return null;
+			}
+			for (BooleanFormula constraint : racer.constraints) {
+				prover.addConstraint(constraint);
+			}
+			Boolean unsat = racer.manager.isUnsat(prover, budget);
+			return unsat == null ? null : Map.entry(racer.solver, unsat);
+		} finally {
+			if (prover != null) {
+				racer.manager.closeProver(prover);
+			}
+			racer.finish();
+			if (!racer.borrowed) {
+				racer.manager.close();
+			}
+		}
+	}
+
+	/**
+	 * chooseBackends gives backends racing for the next query
+     * @return all available backends, or the leader alone once it wins almost every race
+     */
+	private List<Solvers> chooseBackends() {
+		List<Solvers> available = new ArrayList<>(backends);
+		available.removeAll(unavailable);
+		if (available.size() <= 1 || queries.incrementAndGet() % RERACE_PERIOD == 0) {
+			return available;
+		}
+
+		Solvers leader = available.stream().max(Comparator.comparingLong(solver -> wins.get(solver).sum())).get();
+		long total = races.sum();
+		if (total >= MIN_RACES && wins.get(leader).sum() >= LEADER_SHARE * total) {
+			return List.of(leader);
+		}
+		return available;
+	}
+
+	/**
+	 * getWins gives number of races won by every backend
+     * @return wins by backend name
+     */
+	public Map<String, Long> getWins() {
+		Map<String, Long> result = new LinkedHashMap<>();
+		for (Solvers solver : backends) {
+			result.put(solver.name(), wins.get(solver).sum());
+		}
+		return result;
+	}
+
+	private static List<Solvers> parseBackends(String value) {
+		List<Solvers> result = new ArrayList<>();
+		for (String name : value.split(",")) {
+			if (!name.isBlank()) {
+				Solvers solver = SMTManager.parseSolver(name);
+				if (!result.contains(solver)) {
+					result.add(solver);
+				}
+			}
+		}
+		return result;
+	}
+}